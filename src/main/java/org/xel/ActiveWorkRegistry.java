@@ -0,0 +1,429 @@
+package org.xel;
+
+import org.xel.db.DbIterator;
+import org.xel.db.TransactionalDb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ In memory list of the active (not closed) works with what the per block housekeeping needs to know about them: the
+ sender, the height at which the work times out, what is still to be paid for it and its unpaid submissions.
+ Timeouts are indexed by height, so finding the works that time out in a block does not touch the others, and the
+ amounts still to be paid are summed up per sender and in total as works change.
+
+ The registry is loaded from the database the first time it is used and then kept up to date with the work and
+ pow_and_bounty rows saved by committed transactions. Changes of the transaction still in progress are only visible
+ to the thread running it, on top of the committed state. A load that overlaps with a commit is not kept.
+
+ A rollback of the work or pow_and_bounty tables drops the whole registry when its transaction commits or rolls back,
+ not right away: until the commit other threads still read the rows from before the rollback and could load them
+ into the registry again. The transaction that rolled back the tables reads the database itself until then.
+ */
+public final class ActiveWorkRegistry {
+
+    private static final class Entry {
+        private final long id;
+        private final long senderAccountId;
+        private final int timeoutHeight;
+        private final long liability;
+        private final Set<Long> unpaid; // ids of the unpaid submissions
+
+        private Entry(long id, long senderAccountId, int timeoutHeight, long liability, Set<Long> unpaid) {
+            this.id = id;
+            this.senderAccountId = senderAccountId;
+            this.timeoutHeight = timeoutHeight;
+            this.liability = liability;
+            this.unpaid = unpaid;
+        }
+
+        private Entry(Work work) {
+            this(work.getId(), work.getSender_account_id(), work.getOriginating_height() + work.getBlocksRemaining(),
+                    work.getLiability(), new HashSet<>());
+        }
+    }
+
+    private static final class State {
+        private final Map<Long, Entry> works = new HashMap<>();
+        private final TreeMap<Integer, Set<Long>> byTimeout = new TreeMap<>();
+        private final Map<Long, Set<Long>> bySender = new HashMap<>();
+        private final Map<Long, Long> liabilityBySender = new HashMap<>();
+        private long liability = 0;
+
+        private void put(Entry entry) {
+            remove(entry.id);
+            works.put(entry.id, entry);
+            byTimeout.computeIfAbsent(entry.timeoutHeight, h -> new HashSet<>()).add(entry.id);
+            bySender.computeIfAbsent(entry.senderAccountId, a -> new HashSet<>()).add(entry.id);
+            liabilityBySender.merge(entry.senderAccountId, entry.liability, Long::sum);
+            liability += entry.liability;
+        }
+
+        private void remove(long id) {
+            Entry entry = works.remove(id);
+            if (entry != null) {
+                unindex(byTimeout, entry.timeoutHeight, id);
+                unindex(bySender, entry.senderAccountId, id);
+                liabilityBySender.merge(entry.senderAccountId, -entry.liability, Long::sum);
+                if (!bySender.containsKey(entry.senderAccountId)) {
+                    liabilityBySender.remove(entry.senderAccountId);
+                }
+                liability -= entry.liability;
+            }
+        }
+
+        private static <K> void unindex(Map<K, Set<Long>> index, K key, long id) {
+            Set<Long> ids = index.get(key);
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    // a work saved (work == null means closed), or a submission of a work added unpaid or paid
+    private static final class Change {
+        private final long workId;
+        private final boolean saved;
+        private final Entry work;
+        private final long submissionId;
+        private final boolean paid;
+
+        private Change(long workId, boolean saved, Entry work, long submissionId, boolean paid) {
+            this.workId = workId;
+            this.saved = saved;
+            this.work = work;
+            this.submissionId = submissionId;
+            this.paid = paid;
+        }
+
+        // applies this change to changed, entries of committed are copied the first time they are changed.
+        // Applying a change again does not change the outcome, so a change that made it into a load is harmless.
+        private void apply(Map<Long, Entry> changed, State committed) {
+            Entry old = current(changed, committed, workId);
+            if (saved) {
+                if (work == null) {
+                    changed.put(workId, null);
+                } else {
+                    changed.put(workId, new Entry(work.id, work.senderAccountId, work.timeoutHeight, work.liability,
+                            old == null ? new HashSet<>() : new HashSet<>(old.unpaid)));
+                }
+                return;
+            }
+            if (old == null) {
+                return;
+            }
+            Entry entry = changed.get(workId);
+            if (entry == null) {
+                entry = new Entry(old.id, old.senderAccountId, old.timeoutHeight, old.liability, new HashSet<>(old.unpaid));
+                changed.put(workId, entry);
+            }
+            if (paid) {
+                entry.unpaid.remove(submissionId);
+            } else {
+                entry.unpaid.add(submissionId);
+            }
+        }
+    }
+
+    // the changes of the transaction running on one thread
+    private static final class Pending {
+        private final List<Change> changes = new ArrayList<>();
+        private boolean rolledBack = false;
+        // changes applied to the committed state of version changedVersion, kept up to date as changes come in
+        private final Map<Long, Entry> changed = new HashMap<>();
+        private long changedVersion = -1;
+        private int applied = 0;
+
+        // must hold the registry lock, state is not null
+        private Map<Long, Entry> getChanged() {
+            if (changedVersion != version) {
+                changed.clear();
+                applied = 0;
+                changedVersion = version;
+            }
+            while (applied < changes.size()) {
+                changes.get(applied++).apply(changed, state);
+            }
+            return changed;
+        }
+
+        private void clear() {
+            changes.clear();
+            rolledBack = false;
+            changed.clear();
+            changedVersion = -1;
+            applied = 0;
+        }
+    }
+
+    private static State state = null;
+    // bumped by every commit and every reset, a load that saw it change while reading is discarded
+    private static long version = 0;
+
+    private static final ThreadLocal<Pending> pending = ThreadLocal.withInitial(Pending::new);
+
+    private static final TransactionalDb.TransactionCallback callback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+            Pending committed = pending.get();
+            synchronized (ActiveWorkRegistry.class) {
+                if (committed.rolledBack) {
+                    state = null;
+                } else if (state != null) {
+                    committed.getChanged().forEach((id, entry) -> {
+                        if (entry == null) {
+                            state.remove(id);
+                        } else {
+                            state.put(entry);
+                        }
+                    });
+                }
+                version++;
+            }
+            committed.clear();
+        }
+
+        @Override
+        public void rollback() {
+            Pending rolledBack = pending.get();
+            if (rolledBack.rolledBack) {
+                reset();
+            }
+            rolledBack.clear();
+        }
+    };
+
+    private ActiveWorkRegistry() {}
+
+    // called for every work row saved, inside the transaction that saves it
+    static void saved(Work work) {
+        record(new Change(work.getId(), true, work.isClosed() ? null : new Entry(work), 0, false));
+    }
+
+    // called for every submission that is added unpaid or gets paid, inside the transaction that saves it
+    static void submissionSaved(long workId, long submissionId, boolean paid) {
+        record(new Change(workId, false, null, submissionId, paid));
+    }
+
+    // called when the work or pow_and_bounty table is rolled back or truncated, inside the transaction doing it
+    static void rolledBack() {
+        pending.get().rolledBack = true;
+        Db.db.registerCallback(callback);
+    }
+
+    private static void reset() {
+        synchronized (ActiveWorkRegistry.class) {
+            version++;
+            state = null;
+        }
+    }
+
+    // ids of the active works timing out at height, in id order
+    static TreeSet<Long> getTimingOut(int height) {
+        return collect(view -> {
+            TreeSet<Long> ids = new TreeSet<>();
+            Set<Long> committed = view.state.byTimeout.get(height);
+            if (committed != null) {
+                ids.addAll(committed);
+            }
+            ids.addAll(view.changed.keySet());
+            ids.removeIf(id -> {
+                Entry entry = view.get(id);
+                return entry == null || entry.timeoutHeight != height;
+            });
+            return ids;
+        });
+    }
+
+    // accounts that send at least one active work, may contain a few whose last work closed in this transaction
+    static Set<Long> getSenders() {
+        return collect(view -> {
+            Set<Long> senders = new HashSet<>(view.state.bySender.keySet());
+            view.changed.values().forEach(entry -> {
+                if (entry != null) {
+                    senders.add(entry.senderAccountId);
+                }
+            });
+            return senders;
+        });
+    }
+
+    // ids of the active works sent by an account, in id order
+    static TreeSet<Long> getWorksBySender(long accountId) {
+        return collect(view -> {
+            TreeSet<Long> ids = new TreeSet<>();
+            Set<Long> committed = view.state.bySender.get(accountId);
+            if (committed != null) {
+                ids.addAll(committed);
+            }
+            ids.addAll(view.changed.keySet());
+            ids.removeIf(id -> {
+                Entry entry = view.get(id);
+                return entry == null || entry.senderAccountId != accountId;
+            });
+            return ids;
+        });
+    }
+
+    // ids of the active works with more than limit unpaid submissions, in id order
+    public static TreeSet<Long> getWorksWithUnpaidAbove(int limit) {
+        return collect(view -> {
+            TreeSet<Long> ids = new TreeSet<>();
+            view.state.works.values().forEach(entry -> {
+                if (entry.unpaid.size() > limit) {
+                    ids.add(entry.id);
+                }
+            });
+            view.changed.forEach((id, entry) -> {
+                if (entry != null && entry.unpaid.size() > limit) {
+                    ids.add(id);
+                } else {
+                    ids.remove(id);
+                }
+            });
+            return ids;
+        });
+    }
+
+    // what the senders of all active works still have to pay for them
+    static long getLiability() {
+        return collect(view -> {
+            long liability = view.state.liability;
+            for (Map.Entry<Long, Entry> e : view.changed.entrySet()) {
+                liability += view.difference(e.getKey(), e.getValue(), null);
+            }
+            return liability;
+        });
+    }
+
+    // what an account still has to pay for its active works
+    static long getLiability(long accountId) {
+        return collect(view -> {
+            long liability = view.state.liabilityBySender.getOrDefault(accountId, 0L);
+            for (Map.Entry<Long, Entry> e : view.changed.entrySet()) {
+                liability += view.difference(e.getKey(), e.getValue(), accountId);
+            }
+            return liability;
+        });
+    }
+
+    // the committed state with the changes of the running transaction on top
+    private static final class View {
+        private final State state;
+        private final Map<Long, Entry> changed;
+
+        private View(State state, Map<Long, Entry> changed) {
+            this.state = state;
+            this.changed = changed;
+        }
+
+        private Entry get(long id) {
+            return current(changed, state, id);
+        }
+
+        // change of the liability of one sender (or all of them for null) by a changed entry
+        private long difference(long id, Entry entry, Long accountId) {
+            Entry old = state.works.get(id);
+            long difference = 0;
+            if (entry != null && (accountId == null || entry.senderAccountId == accountId)) {
+                difference += entry.liability;
+            }
+            if (old != null && (accountId == null || old.senderAccountId == accountId)) {
+                difference -= old.liability;
+            }
+            return difference;
+        }
+    }
+
+    private interface Query<T> {
+        T run(View view);
+    }
+
+    private static <T> T collect(Query<T> query) {
+        Pending changes = Db.db.isInTransaction() ? pending.get() : null;
+        long loadVersion = -1;
+        if (changes == null || !changes.rolledBack) {
+            synchronized (ActiveWorkRegistry.class) {
+                if (state != null) {
+                    return query.run(new View(state, changes == null ? Collections.emptyMap() : changes.getChanged()));
+                }
+                loadVersion = version;
+            }
+        }
+
+        // loaded through the connection of the running transaction, so its own changes are in already
+        State loaded = load();
+        if (changes == null || (changes.changes.isEmpty() && !changes.rolledBack)) {
+            synchronized (ActiveWorkRegistry.class) {
+                if (version == loadVersion) {
+                    state = loaded;
+                }
+            }
+        }
+        return query.run(new View(loaded, Collections.emptyMap()));
+    }
+
+    private static void record(Change change) {
+        pending.get().changes.add(change);
+        Db.db.registerCallback(callback);
+    }
+
+    private static Entry current(Map<Long, Entry> changed, State committed, long id) {
+        if (changed.containsKey(id)) {
+            return changed.get(id);
+        }
+        return committed.works.get(id);
+    }
+
+    private static State load() {
+        State loaded = new State();
+        try (DbIterator<Work> it = Work.getActiveWork()) {
+            for (Work work : it) {
+                loaded.put(new Entry(work));
+            }
+        }
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT work_id, id FROM pow_and_bounty "
+                     + "WHERE was_paid = FALSE AND latest = TRUE")) {
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Entry entry = loaded.works.get(rs.getLong(1));
+                    if (entry != null) {
+                        entry.unpaid.add(rs.getLong(2));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package org.xel;
+
+import org.xel.db.TrimmableTable;
+import org.xel.util.Logger;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Trims the derived tables of a blockchain in the background, one slice at a time
+ *
+ * Every slice is a database transaction of its own, run under the blockchain read lock, so a block waits for one
+ * slice at most instead of the trim of all tables. No slice is started while a block is being processed.
+ * Versioned tables are trimmed nxt.trimSliceSize db_id values per slice, the other tables in one slice.
+ * There is a pause of nxt.trimSlicePause milliseconds between slices.
+ */
+public final class DerivedTableTrimmer {
+
+    private static final int sliceSize = Math.max(1, Nxt.getIntProperty("nxt.trimSliceSize", 10000));
+    private static final int slicePause = Math.max(0, Nxt.getIntProperty("nxt.trimSlicePause", 10));
+
+    private static final List<DerivedTableTrimmer> trimmers = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final Blockchain blockchain;
+    private final List<? extends TrimmableTable> tables;
+    private final BooleanSupplier isProcessingBlock;
+
+    private volatile boolean trimming = false;
+    // progress of the running pass, or of the last one
+    private volatile int height = 0;
+    private volatile int tablesDone = 0;
+    private volatile String table = null;
+    private volatile long position = 0;
+    private volatile long end = 0;
+    private volatile long slices = 0;
+    private volatile long passes = 0;
+    private volatile long lastPassMillis = 0;
+
+    DerivedTableTrimmer(String name, Blockchain blockchain, List<? extends TrimmableTable> tables,
+                        BooleanSupplier isProcessingBlock) {
+        this.name = name;
+        this.blockchain = blockchain;
+        this.tables = tables;
+        this.isProcessingBlock = isProcessingBlock;
+        trimmers.add(this);
+    }
+
+    public static List<DerivedTableTrimmer> getAll() {
+        return Collections.unmodifiableList(trimmers);
+    }
+
+    /**
+     * Start a trim pass, unless one is still running
+     *
+     * @param   height              Trim height
+     * @param   executor            Executor to run the pass on
+     * @return                      TRUE if the pass was started
+     */
+    boolean start(int height, ExecutorService executor) {
+        if (trimming) {
+            return false;
+        }
+        trimming = true;
+        executor.submit(() -> {
+            try {
+                trim(height);
+            } catch (Exception e) {
+                Logger.logMessage("Error trimming " + name + " derived tables at " + table, e);
+            } finally {
+                table = null;
+                trimming = false;
+            }
+        });
+        return true;
+    }
+
+    private void trim(int height) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        this.height = height;
+        tablesDone = 0;
+        for (TrimmableTable t : tables) {
+            table = t.toString();
+            position = 0;
+            end = t.getTrimEnd();
+            while (position < end) {
+                while (isProcessingBlock.getAsBoolean()) {
+                    Thread.sleep(Math.max(slicePause, 10));
+                }
+                blockchain.readLock();
+                try {
+                    Db.db.beginTransaction();
+                    position = t.trim(height, position, end, sliceSize);
+                    Db.db.commitTransaction();
+                } catch (Exception e) {
+                    Db.db.rollbackTransaction();
+                    throw e;
+                } finally {
+                    Db.db.endTransaction();
+                    blockchain.readUnlock();
+                }
+                slices++;
+                if (slicePause > 0) {
+                    Thread.sleep(slicePause);
+                }
+            }
+            tablesDone++;
+        }
+        passes++;
+        lastPassMillis = System.currentTimeMillis() - start;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isTrimming() {
+        return trimming;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTableCount() {
+        return tables.size();
+    }
+
+    // tables finished in the running pass
+    public int getTablesDone() {
+        return tablesDone;
+    }
+
+    // table being trimmed, null if no pass is running
+    public String getTable() {
+        return table;
+    }
+
+    // positions of the current table still to trim
+    public long getTableBacklog() {
+        return table == null ? 0 : Math.max(end - position, 0);
+    }
+
+    public long getSlices() {
+        return slices;
+    }
+
+    public long getPasses() {
+        return passes;
+    }
+
+    public long getLastPassMillis() {
+        return lastPassMillis;
+    }
+}
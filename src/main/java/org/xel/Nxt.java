@@ -18,6 +18,7 @@ package org.xel;
 
 import org.xel.PowAndBounty;
 import org.xel.addons.AddOns;
+import org.xel.computation.BlockVerification;
 import org.xel.computation.MessageEncoder;
 import org.xel.crypto.Crypto;
 import org.xel.env.DirProvider;
@@ -378,6 +379,7 @@ public final class Nxt {
         ThreadPool.shutdown();
         BlockchainProcessorImpl.getInstance().shutdown();
         TemporaryComputationBlockchainProcessorImpl.getInstance().shutdown();
+        BlockVerification.shutdown();
         Peers.shutdown();
         Db.shutdown();
         Logger.logShutdownMessage("Nxt server " + VERSION + " stopped.");
@@ -423,6 +425,7 @@ public final class Nxt {
                 Users.init();
                 DebugTrace.init();
                 AlternativeChainPubkeys.init();
+                UnconfirmedGetter.init();
 
                 int timeMultiplier = (Constants.isTestnet && Constants.isOffline) ? Math.max(Nxt.getIntProperty("nxt.timeMultiplier"), 1) : 1;
                 ThreadPool.start(timeMultiplier);
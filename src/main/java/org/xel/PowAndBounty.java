@@ -34,7 +34,26 @@ import org.xel.util.Logger;
 
 import static java.security.MessageDigest.getInstance;
 public final class PowAndBounty{
-    public static MessageDigest dig = null;
+    public static final int STREAM_LENGTH = 12;
+
+    // MessageDigest is not thread safe, every thread gets its own one plus scratch buffers
+    private static final class StreamState {
+        private final MessageDigest dig;
+        private final byte[] ids = new byte[16];
+        private final byte[] digest;
+
+        private StreamState() {
+            try {
+                dig = getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                // Should always work
+                throw new IllegalStateException(e);
+            }
+            digest = new byte[dig.getDigestLength()];
+        }
+    }
+    private static final ThreadLocal<StreamState> streamState = ThreadLocal.withInitial(StreamState::new);
+
     public static int toInt(final byte[] bytes, final int offset) {
         int ret = 0;
         for (int i = 0; (i < 4) && ((i + offset) < bytes.length); i++) {
@@ -43,15 +62,6 @@ public final class PowAndBounty{
         }
         return ret;
     }
-    static {
-        try {
-            dig = getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            // Should always work
-            e.printStackTrace();
-            System.exit(1);
-        }
-    }
     public static int swap (int value)
     {
         int b1 = (value >>  0) & 0xff;
@@ -63,43 +73,58 @@ public final class PowAndBounty{
     }
 
     public static int[] personalizedIntStream(final byte[] publicKey, final long blockId, final byte[] multiplicator, final long workId) throws Exception {
-        final int[] stream = new int[12];
+        final int[] stream = new int[STREAM_LENGTH];
+        personalizedIntStream(publicKey, blockId, multiplicator, workId, stream, 0);
+        return stream;
+    }
+
+    // writes the STREAM_LENGTH ints of the stream to stream[offset ...], safe to call from any thread
+    public static void personalizedIntStream(final byte[] publicKey, final long blockId, final byte[] multiplicator, final long workId,
+                                             final int[] stream, final int offset) throws Exception {
+        if (multiplicator.length < 12) {
+            throw new Exception("Bad multiplicator length " + multiplicator.length);
+        }
+        final StreamState state = streamState.get();
+        final MessageDigest dig = state.dig;
 
         dig.reset();
         dig.update(multiplicator);
         dig.update(publicKey);
 
-        final byte[] b1 = new byte[16];
+        final byte[] b1 = state.ids;
         for (int i = 0; i < 8; ++i) b1[i] = (byte) (workId >> ((8 - i - 1) << 3));
         for (int i = 0; i < 8; ++i) b1[i + 8] = (byte) (blockId >> ((8 - i - 1) << 3));
 
         dig.update(b1);
 
-
-        byte[] digest = dig.digest();
-
-
-        int ln = digest.length;
+        final byte[] digest = state.digest;
+        int ln = dig.digest(digest, 0, digest.length);
         if (ln == 0) {
             throw new Exception("Bad digest calculation");
         }
 
-        int[] multi32 = Convert.byte2int(multiplicator);
-
         for (int i = 0; i < 10; ++i) {
             int got = toInt(digest, (i * 4) % ln);
-            if (i > 4) got = got ^ stream[i - 3];
-            stream[i] = got;
+            if (i > 4) got = got ^ stream[offset + i - 3];
+            stream[offset + i] = got;
 
         }
-        stream[10] = swap(multi32[1]);
-        stream[11] = swap(multi32[2]);
-
-
+        // same as swap() of the second and third big-endian int of the multiplicator
+        stream[offset + 10] = swap(toInt(multiplicator, 4));
+        stream[offset + 11] = swap(toInt(multiplicator, 8));
+    }
 
-        return stream;
+    // streams of many submissions to the same work at once, stream i is at [i * STREAM_LENGTH, (i + 1) * STREAM_LENGTH)
+    public static int[] personalizedIntStreams(final byte[][] publicKeys, final byte[][] multiplicators, final long blockId, final long workId) throws Exception {
+        if (publicKeys.length != multiplicators.length) {
+            throw new IllegalArgumentException("Number of public keys and multiplicators differ");
+        }
+        final int[] streams = new int[publicKeys.length * STREAM_LENGTH];
+        for (int i = 0; i < publicKeys.length; ++i) {
+            personalizedIntStream(publicKeys[i], blockId, multiplicators[i], workId, streams, i * STREAM_LENGTH);
+        }
+        return streams;
     }
-    //public static int[] personalizedIntStream(final byte[] publicKey, final long blockId, final byte[] multiplicator, final long workId) throws Exception {
 
     public JSONArray getJSONInts() {
         JSONArray arr = new JSONArray();
@@ -114,6 +139,27 @@ public final class PowAndBounty{
         return arr;
     }
 
+    // getJSONInts of the latest bounties of a work, without looking up the work for every single one of them
+    public static JSONArray getBountiesJSONInts(final long workId, final long workBlockId) {
+        JSONArray bounties = new JSONArray();
+        int[] ints = new int[STREAM_LENGTH];
+        try(DbIterator<PowAndBounty> it = getBountiesLimited(workId)){
+            while (it.hasNext()) {
+                PowAndBounty h = it.next();
+                JSONArray arr = new JSONArray();
+                try {
+                    personalizedIntStream(h.publickey, workBlockId, h.multiplier, workId, ints, 0);
+                    for(int x : ints){
+                        arr.add(x);
+                    }
+                } catch (Exception e) {
+                }
+                bounties.add(arr);
+            }
+        }
+        return bounties;
+    }
+
 
     public enum Event {
         POW_SUBMITTED, BOUNTY_SUBMITTED
@@ -143,6 +189,22 @@ public final class PowAndBounty{
         protected void save(final Connection con, final PowAndBounty participant) throws SQLException {
             participant.save(con);
         }
+
+        @Override
+        public void rollback(int height) {
+            super.rollback(height);
+            SubmissionIndex.rolledBack();
+            StorageSnapshots.rolledBack();
+            ActiveWorkRegistry.rolledBack();
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            SubmissionIndex.rolledBack();
+            StorageSnapshots.rolledBack();
+            ActiveWorkRegistry.rolledBack();
+        }
     };
 
     public static void addPowBty(final Transaction transaction, final CommandPowBty attachment) {
@@ -155,6 +217,9 @@ public final class PowAndBounty{
 
         PowAndBounty shuffling = new PowAndBounty(transaction, attachment);
         PowAndBounty.powAndBountyTable.insert(shuffling); // store immedeately!
+        SubmissionIndex.added(shuffling.work_id, shuffling.multiplier, shuffling.verificator_hash);
+        StorageSnapshots.saved(shuffling.work_id);
+        ActiveWorkRegistry.submissionSaved(shuffling.work_id, shuffling.id, shuffling.was_paid);
 
 
         // Now the work itself has to be manipulated (and close if necessary)
@@ -226,6 +291,53 @@ public final class PowAndBounty{
                 .getCount(new DbClause.LongClause("work_id", wid).and(new DbClause.BooleanClause("was_paid", false)).and(new DbClause.BooleanClause("latest", true)));
     }
 
+    // the unpaid submissions of all works of an account that are open or closed after closedAfterHeight, in one query
+    // an unpaid submission with what its work pays for it
+    public static final class UnpaidSubmission {
+        private final long id;
+        private final long accountId;
+        private final long amount;
+
+        private UnpaidSubmission(ResultSet rs) throws SQLException {
+            this.id = rs.getLong("id");
+            this.accountId = rs.getLong("account_id");
+            this.amount = rs.getBoolean("is_pow") ? rs.getLong("xel_per_pow") : rs.getLong("xel_per_bounty");
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getAccountId() {
+            return accountId;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+    }
+
+    // open works first, newest first, and the submissions of a work in the order they came in
+    public static DbIterator<UnpaidSubmission> getUnpaidSubmissionsByWorkOwner(final long accountId, final int closedAfterHeight) {
+        Connection con = null;
+        try {
+            con = Db.db.getConnection();
+            PreparedStatement pstmt = con.prepareStatement("SELECT pow_and_bounty.id, pow_and_bounty.account_id, "
+                    + "pow_and_bounty.is_pow, work.xel_per_pow, work.xel_per_bounty FROM pow_and_bounty, work "
+                    + "WHERE work.id = pow_and_bounty.work_id AND work.latest = TRUE AND work.sender_account_id = ? "
+                    + "AND (work.closed = FALSE OR work.height > ?) "
+                    + "AND pow_and_bounty.was_paid = FALSE AND pow_and_bounty.latest = TRUE "
+                    + "ORDER BY work.closed, work.originating_height DESC, pow_and_bounty.db_id");
+            int i = 0;
+            pstmt.setLong(++i, accountId);
+            pstmt.setInt(++i, closedAfterHeight);
+            return new DbIterator<>(con, pstmt, (connection, rs) -> new UnpaidSubmission(rs));
+        } catch (SQLException e) {
+            DbUtils.close(con);
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
     public static DbIterator<PowAndBounty> getUnpaidSubmission(final long wid) {
         return PowAndBounty.powAndBountyTable
                 .getManyBy(new DbClause.LongClause("work_id", wid).and(new DbClause.BooleanClause("was_paid", false)).and(new DbClause.BooleanClause("latest", true)), 0,
@@ -286,17 +398,25 @@ public final class PowAndBounty{
 
     // storage hash linked to wid only
     public static boolean hasVerificatorHash(long workId, byte[] hash) {
+        if (!SubmissionIndex.mightHaveVerificatorHash(workId, hash)) {
+            return false;
+        }
         return PowAndBounty.powAndBountyTable
                 .getCount(new DbClause.BytesClause("verificator_hash", hash).and(new DbClause.LongClause("work_id",workId))) > 0;
     }
 
     public static boolean hasMultiplier(long workId, byte[] multiplier) {
+        if (!SubmissionIndex.mightHaveMultiplier(workId, multiplier)) {
+            return false;
+        }
         return PowAndBounty.powAndBountyTable
                 .getCount(new DbClause.BytesClause("multiplier", multiplier).and(new DbClause.LongClause("work_id",workId))) > 0;
     }
 
     public void JustSave(){
         PowAndBounty.powAndBountyTable.insert(this);
+        StorageSnapshots.saved(this.work_id);
+        ActiveWorkRegistry.submissionSaved(this.work_id, this.id, this.was_paid);
         Logger.logDebugMessage("Work submission status of " + this.getId() + " is now: " + ((this.isWas_paid())?"paid":"unpaid"));
     }
     static void init() {
@@ -0,0 +1,156 @@
+package org.xel;
+
+import org.xel.db.DbIterator;
+import org.xel.db.TransactionalDb;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ The combined storage of a work, the storage slots of the last full round. Every slot is read from pow_and_bounty with
+ the same single row query as before the first time it is asked for, later calls are a copy of what was read until the
+ next bounty changes the round. The rows of a slot are picked by that query only, a round is never read in one go:
+ many bounties share a height and the order of rows of the same height is up to the database.
+
+ A snapshot is only valid for the received_bounties count it was built for, so that count is part of the lookup.
+ Counts can come back after a rollback with different rows behind them, so snapshots are dropped when a transaction
+ that rolled back pow_and_bounty commits or rolls back, or a transaction that saved bounties rolls back. Until then
+ other threads still read the rows from before the rollback, and the transaction itself reads past the snapshots.
+ A paid bounty is saved at a new height without changing the count but moves within the height order of the query,
+ so the snapshots of every work with a saved bounty are dropped when the transaction commits, and the transaction
+ reads past them until then. Slots read by a transaction that changed pow_and_bounty, or read while such a change
+ was committed, are not kept.
+ */
+final class StorageSnapshots {
+
+    private static final int MAX_WORKS = 256;
+
+    private static final class Snapshot {
+        private final int receivedBounties;
+        private final byte[][] slots; // null for slots not read yet
+
+        private Snapshot(int receivedBounties, int slots) {
+            this.receivedBounties = receivedBounties;
+            this.slots = new byte[slots][];
+        }
+    }
+
+    private static final Map<Long, Snapshot> works = new LinkedHashMap<Long, Snapshot>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Snapshot> eldest) {
+            return size() > MAX_WORKS;
+        }
+    };
+    // bumped by every commit or rollback of new bounties and every reset
+    private static long version = 0;
+
+    // what the transaction of this thread did to pow_and_bounty, the works of the bounties it saved
+    private static final ThreadLocal<Set<Long>> saved = ThreadLocal.withInitial(HashSet::new);
+    private static final ThreadLocal<Boolean> rolledBack = ThreadLocal.withInitial(() -> false);
+
+    private static final TransactionalDb.TransactionCallback callback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+            if (rolledBack.get()) {
+                reset();
+            } else {
+                synchronized (works) {
+                    version++;
+                    works.keySet().removeAll(saved.get());
+                }
+            }
+            saved.get().clear();
+            rolledBack.set(false);
+        }
+
+        @Override
+        public void rollback() {
+            reset();
+            saved.get().clear();
+            rolledBack.set(false);
+        }
+    };
+
+    private StorageSnapshots() {}
+
+    // storage of one slot of the last full round, the caller checked that there is a full round and the slot is in range
+    static byte[] getStorage(Work work, int slot) {
+        int received = work.getReceived_bounties();
+        boolean inTransaction = Db.db.isInTransaction();
+        boolean ownChange = inTransaction && (rolledBack.get() || saved.get().contains(work.getId()));
+        boolean keep = !inTransaction || !(!saved.get().isEmpty() || rolledBack.get());
+        long loadVersion;
+        synchronized (works) {
+            Snapshot snapshot = works.get(work.getId());
+            if (!ownChange && snapshot != null && snapshot.receivedBounties == received && snapshot.slots[slot] != null) {
+                return snapshot.slots[slot].clone();
+            }
+            loadVersion = version;
+        }
+
+        byte[] storage = load(work, received, slot);
+        if (keep) {
+            synchronized (works) {
+                if (version == loadVersion) {
+                    Snapshot snapshot = works.get(work.getId());
+                    if (snapshot == null || snapshot.receivedBounties != received) {
+                        snapshot = new Snapshot(received, work.getBounty_limit_per_iteration());
+                        works.put(work.getId(), snapshot);
+                    }
+                    snapshot.slots[slot] = storage.clone();
+                }
+            }
+        }
+        return storage;
+    }
+
+    // called for every save of a pow_and_bounty row, new or paid, inside the transaction that saves it
+    static void saved(long workId) {
+        saved.get().add(workId);
+        Db.db.registerCallback(callback);
+    }
+
+    // called when pow_and_bounty is rolled back or truncated, inside the transaction doing it
+    static void rolledBack() {
+        rolledBack.set(true);
+        Db.db.registerCallback(callback);
+    }
+
+    private static void reset() {
+        synchronized (works) {
+            version++;
+            works.clear();
+        }
+    }
+
+    // the single row query Work.getStorage always used, a slot without a bounty row fails with NoSuchElementException
+    private static byte[] load(Work work, int received, int slot) {
+        int limit = work.getBounty_limit_per_iteration();
+        try (DbIterator<PowAndBounty> it = PowAndBounty.getLastBountiesRelevantForStorageGeneration(work.getId(),
+                received / limit, received % limit, slot)) {
+            byte[] submitted = it.next().getSubmitted_storage();
+            if (submitted.length != work.getStorage_size() * 4) {
+                return new byte[work.getStorage_size() * 4];
+            }
+            return submitted;
+        }
+    }
+}
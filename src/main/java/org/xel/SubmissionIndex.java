@@ -0,0 +1,244 @@
+package org.xel;
+
+import org.xel.db.TransactionalDb;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ In memory fingerprints of the multipliers and verificator hashes submitted to a work, so the duplicate checks of
+ PowAndBounty do not need a COUNT query for every submission. A miss is definite, a hit (which may be a fingerprint
+ collision or a row that was rolled back since) is confirmed against the database by the caller.
+
+ The index of a work is loaded from pow_and_bounty the first time it is asked for and then kept up to date with the
+ submissions of committed transactions. Submissions of the transaction still in progress are only visible to the
+ thread running it. A load that overlaps with a commit is thrown away, so a loaded index never misses a committed row.
+ Rollbacks of pow_and_bounty drop the whole index when their transaction commits or rolls back, it rebuilds itself on
+ demand. Until then other threads still read the rows from before the rollback, and the transaction that rolled back
+ confirms every check against the database.
+ */
+final class SubmissionIndex {
+
+    private static final int MAX_WORKS = 1024;
+
+    private static final int MULTIPLIER = 0;
+    private static final int VERIFICATOR_HASH = 1;
+
+    // open addressing set of 64 bit fingerprints, 0 marks a free slot
+    private static final class FingerprintSet {
+        private long[] slots = new long[16];
+        private int size = 0;
+
+        private void add(long fingerprint) {
+            if ((size + 1) * 2 > slots.length) {
+                long[] old = slots;
+                slots = new long[old.length * 2];
+                size = 0;
+                for (long f : old) {
+                    if (f != 0) {
+                        add(f);
+                    }
+                }
+            }
+            int mask = slots.length - 1;
+            for (int i = (int) mix(fingerprint) & mask; ; i = (i + 1) & mask) {
+                if (slots[i] == fingerprint) {
+                    return;
+                }
+                if (slots[i] == 0) {
+                    slots[i] = fingerprint;
+                    size++;
+                    return;
+                }
+            }
+        }
+
+        private boolean contains(long fingerprint) {
+            int mask = slots.length - 1;
+            for (int i = (int) mix(fingerprint) & mask; ; i = (i + 1) & mask) {
+                if (slots[i] == fingerprint) {
+                    return true;
+                }
+                if (slots[i] == 0) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private static final class WorkIndex {
+        private final FingerprintSet[] sets = {new FingerprintSet(), new FingerprintSet()};
+    }
+
+    private static final class Pending {
+        private final long workId;
+        private final long multiplier;
+        private final long verificatorHash;
+
+        private Pending(long workId, long multiplier, long verificatorHash) {
+            this.workId = workId;
+            this.multiplier = multiplier;
+            this.verificatorHash = verificatorHash;
+        }
+    }
+
+    private static final Map<Long, WorkIndex> works = new LinkedHashMap<Long, WorkIndex>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, WorkIndex> eldest) {
+            return size() > MAX_WORKS;
+        }
+    };
+    // bumped by every commit and every reset, a load that saw it change while reading is discarded
+    private static long version = 0;
+
+    private static final ThreadLocal<List<Pending>> pending = ThreadLocal.withInitial(ArrayList::new);
+    // the transaction of this thread rolled back pow_and_bounty
+    private static final ThreadLocal<Boolean> rolledBack = ThreadLocal.withInitial(() -> false);
+
+    private static final TransactionalDb.TransactionCallback callback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+            List<Pending> committed = pending.get();
+            synchronized (works) {
+                version++;
+                if (rolledBack.get()) {
+                    works.clear();
+                } else {
+                    for (Pending p : committed) {
+                        WorkIndex index = works.get(p.workId);
+                        if (index != null) {
+                            index.sets[MULTIPLIER].add(p.multiplier);
+                            index.sets[VERIFICATOR_HASH].add(p.verificatorHash);
+                        }
+                    }
+                }
+            }
+            committed.clear();
+            rolledBack.set(false);
+        }
+
+        @Override
+        public void rollback() {
+            if (rolledBack.get()) {
+                reset();
+            }
+            pending.get().clear();
+            rolledBack.set(false);
+        }
+    };
+
+    private SubmissionIndex() {}
+
+    static boolean mightHaveMultiplier(long workId, byte[] multiplier) {
+        return mightHave(workId, MULTIPLIER, fingerprint(multiplier));
+    }
+
+    static boolean mightHaveVerificatorHash(long workId, byte[] verificatorHash) {
+        return mightHave(workId, VERIFICATOR_HASH, fingerprint(verificatorHash));
+    }
+
+    // called for every new pow_and_bounty row, inside the transaction that inserts it
+    static void added(long workId, byte[] multiplier, byte[] verificatorHash) {
+        pending.get().add(new Pending(workId, fingerprint(multiplier), fingerprint(verificatorHash)));
+        Db.db.registerCallback(callback);
+    }
+
+    // called when pow_and_bounty is rolled back or truncated, inside the transaction doing it
+    static void rolledBack() {
+        rolledBack.set(true);
+        Db.db.registerCallback(callback);
+    }
+
+    private static void reset() {
+        synchronized (works) {
+            version++;
+            works.clear();
+        }
+    }
+
+    private static boolean mightHave(long workId, int kind, long fingerprint) {
+        if (Db.db.isInTransaction()) {
+            if (rolledBack.get()) {
+                return true;
+            }
+            for (Pending p : pending.get()) {
+                if (p.workId == workId && (kind == MULTIPLIER ? p.multiplier : p.verificatorHash) == fingerprint) {
+                    return true;
+                }
+            }
+        }
+        long loadVersion;
+        synchronized (works) {
+            WorkIndex index = works.get(workId);
+            if (index != null) {
+                return index.sets[kind].contains(fingerprint);
+            }
+            loadVersion = version;
+        }
+
+        WorkIndex index = load(workId);
+        synchronized (works) {
+            if (version == loadVersion) {
+                works.put(workId, index);
+            }
+        }
+        return index.sets[kind].contains(fingerprint);
+    }
+
+    private static WorkIndex load(long workId) {
+        WorkIndex index = new WorkIndex();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT multiplier, verificator_hash FROM pow_and_bounty WHERE work_id = ?")) {
+            pstmt.setLong(1, workId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    index.sets[MULTIPLIER].add(fingerprint(rs.getBytes("multiplier")));
+                    index.sets[VERIFICATOR_HASH].add(fingerprint(rs.getBytes("verificator_hash")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        return index;
+    }
+
+    private static long fingerprint(byte[] bytes) {
+        long h = 0x84222325CBF29CE4L;
+        if (bytes != null) {
+            for (byte b : bytes) {
+                h = (h ^ (b & 0xFF)) * 0x100000001B3L;
+            }
+        }
+        h = mix(h);
+        return h == 0 ? 1 : h;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
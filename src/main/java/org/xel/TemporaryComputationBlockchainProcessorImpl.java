@@ -61,7 +61,7 @@ public final class TemporaryComputationBlockchainProcessorImpl implements Blockc
     private volatile int lastBlockchainFeederHeight;
     private volatile boolean getMoreBlocks = true;
 
-    private volatile boolean isTrimming;
+    private final DerivedTableTrimmer trimmer = new DerivedTableTrimmer("computation", blockchain, derivedTables, this::isProcessingBlock);
     private volatile boolean isScanning;
     private volatile boolean isDownloading;
     private volatile boolean isProcessingBlock;
@@ -770,12 +770,11 @@ public final class TemporaryComputationBlockchainProcessorImpl implements Blockc
         }, Event.BLOCK_SCANNED_COMPUTATION);
 
         blockListeners.addListener(block -> {
-            if (trimDerivedTables && block.getHeight() % trimFrequency == 0 && !isTrimming) {
-                isTrimming = true;
-                networkService.submit(() -> {
-                    trimDerivedTables();
-                    isTrimming = false;
-                });
+            if (trimDerivedTables && block.getHeight() % trimFrequency == 0) {
+                int trimHeight = Math.max(block.getHeight() - Constants.MAX_ROLLBACK, 0);
+                if (trimHeight > 0 && trimmer.start(trimHeight, networkService)) {
+                    lastTrimHeight = trimHeight;
+                }
             }
             if (block.getHeight() % 5000 == 0) {
                 Logger.logMessage("received block (alternative computation) " + block.getHeight());
@@ -3,52 +3,360 @@ package org.xel;
 import org.xel.computation.MessageEncoder;
 import org.xel.computation.Pair;
 import org.xel.db.DbIterator;
+import org.xel.db.TransactionalDb;
+import org.xel.util.Convert;
 
 import java.util.*;
 
+/*
+ Unconfirmed balance changes per account and the bounties paid by unconfirmed transactions. They are kept up to date
+ from the ADDED/REMOVED_UNCONFIRMED_TRANSACTIONS events of the transaction processor instead of being rebuilt from the
+ whole pool. Events raised inside a database transaction take effect when it commits, a rollback marks the view stale.
 
-public class UnconfirmedGetter {
-    public static Map<Long, Long> unMap = new HashMap<>();
-    public static List<Long> unMapPaidBty = new ArrayList<>();
-    public static long lastTimeUnmapGenerated = 0;
+ The payments of a transaction are extracted once, by the first reader after it arrived. A payment message that did
+ not resolve to any bounty yet (this node may not know it so far) is tried again every RETRY_SECONDS.
+ The pool is reloaded when the view is stale and at most every RELOAD_SECONDS otherwise, this also catches removals
+ that were never announced (requeueAllUnconfirmedTransactions only reports the first maxUnconfirmedTransactions).
+ A reload keeps the payments already extracted.
 
-    public static synchronized Map<Long, Long> refreshMap() {
-        // Only recreate that map once every 5 seconds tops!
-        long curTime = (new Date()).getTime();
-        if((curTime - lastTimeUnmapGenerated) / 1000 < 5) return unMap;
-        unMap.clear();
-        unMapPaidBty.clear();
-        lastTimeUnmapGenerated = curTime;
-        try (DbIterator<? extends Transaction> unconfirmedTransactions = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions()) {
-            while (unconfirmedTransactions.hasNext()) {
-                Transaction t = unconfirmedTransactions.next();
-                long bal = 0;
-                if (unMap.containsKey(t.getSenderId())) {
-                    bal = unMap.get(t.getSenderId());
+ Readers get an immutable View, it is copied from the live maps only when they changed since the last read.
+ */
+public final class UnconfirmedGetter {
+
+    private static final int RETRY_SECONDS = 5;
+    private static final int RELOAD_SECONDS = 60;
+
+    public static final class View {
+        private final LongMap balances;
+        private final LongMap paid;
+
+        private View(LongMap balances, LongMap paid) {
+            this.balances = balances;
+            this.paid = paid;
+        }
+
+        // what the unconfirmed transactions add to (or take from) the balance of the account
+        public long getBalanceChange(long accountId) {
+            return balances.get(accountId);
+        }
+
+        public boolean isPaid(long submissionId) {
+            return paid.get(submissionId) != 0;
+        }
+    }
+
+    private static final class Entry {
+        private final Transaction transaction;
+        private long[] paid; // ids of the paid submissions, null until extracted
+        private boolean resolved;
+
+        private Entry(Transaction transaction) {
+            this.transaction = transaction;
+        }
+    }
+
+    private static final class Change {
+        private final Transaction transaction;
+        private final boolean added;
+
+        private Change(Transaction transaction, boolean added) {
+            this.transaction = transaction;
+            this.added = added;
+        }
+    }
+
+    // open addressing map of long to long with linear probing, a key whose value drops to 0 is removed
+    private static final class LongMap {
+        private long[] keys;
+        private long[] values; // 0 marks a free slot
+        private int size;
+
+        private LongMap() {
+            clear();
+        }
+
+        private LongMap(LongMap other) {
+            keys = other.keys.clone();
+            values = other.values.clone();
+            size = other.size;
+        }
+
+        private long get(long key) {
+            int mask = keys.length - 1;
+            for (int i = index(key, mask); values[i] != 0; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
                 }
-                bal -= t.getAmountNQT() - t.getFeeNQT();
-                unMap.put(t.getSenderId(), bal);
+            }
+            return 0;
+        }
+
+        private void add(long key, long delta) {
+            if (delta == 0) {
+                return;
+            }
+            int mask = keys.length - 1;
+            int i = index(key, mask);
+            while (values[i] != 0) {
+                if (keys[i] == key) {
+                    values[i] += delta;
+                    if (values[i] == 0) {
+                        delete(i);
+                    }
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = delta;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+        }
 
-                bal = 0;
-                if (unMap.containsKey(t.getRecipientId())) {
-                    bal = unMap.get(t.getRecipientId());
+        // closes the gap by moving back the entries that probed past it
+        private void delete(int hole) {
+            int mask = keys.length - 1;
+            values[hole] = 0;
+            size--;
+            for (int j = (hole + 1) & mask; values[j] != 0; j = (j + 1) & mask) {
+                int home = index(keys[j], mask);
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    values[j] = 0;
+                    hole = j;
                 }
-                bal += t.getAmountNQT();
-                unMap.put(t.getRecipientId(), bal);
+            }
+        }
 
-                // Check for BTY
-                List<Pair<Long,Long>> containsPm = MessageEncoder.extractPaymentsFromTX(t);
-                for(Pair<Long, Long> p : containsPm){
-                    unMapPaidBty.add(p.getElement0());
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldValues.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; ++i) {
+                if (oldValues[i] != 0) {
+                    add(oldKeys[i], oldValues[i]);
                 }
             }
         }
-        return unMap;
+
+        private void clear() {
+            keys = new long[16];
+            values = new long[16];
+            size = 0;
+        }
+
+        private static int index(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
     }
 
-    public static List<Long> getUnMapPaidBty() {
-        return unMapPaidBty;
+    private static final Object lock = new Object();
+    // guarded by lock
+    private static final Map<Long, Entry> pool = new HashMap<>();
+    private static final List<Entry> unextracted = new ArrayList<>();
+    private static final LongMap balances = new LongMap();
+    private static final LongMap paid = new LongMap();
+    private static boolean reloading = false;
+
+    // written under lock, read without it to find out whether the current view is still good
+    private static volatile long version = 0;
+    private static volatile boolean stale = true;
+    private static volatile long lastReload = 0;
+    private static volatile long nextRetry = 0;
+    private static volatile long viewVersion = -1;
+    private static volatile View view = new View(new LongMap(), new LongMap());
+
+    private static final ThreadLocal<List<Change>> pending = ThreadLocal.withInitial(ArrayList::new);
+
+    private static final TransactionalDb.TransactionCallback callback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+            List<Change> committed = pending.get();
+            synchronized (lock) {
+                for (Change c : committed) {
+                    apply(c.transaction, c.added);
+                }
+            }
+            committed.clear();
+        }
+
+        @Override
+        public void rollback() {
+            pending.get().clear();
+            stale = true;
+        }
+    };
+
+    private UnconfirmedGetter() {}
+
+    public static void init() {
+        Nxt.getTransactionProcessor().addListener(transactions -> changed(transactions, true),
+                TransactionProcessor.Event.ADDED_UNCONFIRMED_TRANSACTIONS);
+        Nxt.getTransactionProcessor().addListener(transactions -> changed(transactions, false),
+                TransactionProcessor.Event.REMOVED_UNCONFIRMED_TRANSACTIONS);
+    }
+
+    public static View getView() {
+        long now = System.currentTimeMillis();
+        if (stale || now - lastReload >= RELOAD_SECONDS * 1000L) {
+            reload(now);
+        }
+        extract(now);
+        if (viewVersion != version) {
+            synchronized (lock) {
+                view = new View(new LongMap(balances), new LongMap(paid));
+                viewVersion = version;
+            }
+        }
+        return view;
+    }
+
+    private static void changed(List<? extends Transaction> transactions, boolean added) {
+        if (Db.db.isInTransaction()) {
+            List<Change> changes = pending.get();
+            for (Transaction t : transactions) {
+                changes.add(new Change(t, added));
+            }
+            Db.db.registerCallback(callback);
+            return;
+        }
+        synchronized (lock) {
+            for (Transaction t : transactions) {
+                apply(t, added);
+            }
+        }
+    }
+
+    // adding a transaction that is already there replaces it, so replaying an event does no harm
+    private static void apply(Transaction t, boolean added) {
+        Entry old = added ? pool.put(t.getId(), new Entry(t)) : pool.remove(t.getId());
+        if (old != null) {
+            account(old, -1);
+        }
+        if (added) {
+            Entry entry = pool.get(t.getId());
+            account(entry, 1);
+            unextracted.add(entry);
+        }
+        version++;
+    }
+
+    private static void account(Entry entry, int sign) {
+        Transaction t = entry.transaction;
+        balances.add(t.getSenderId(), sign * (t.getFeeNQT() - t.getAmountNQT()));
+        balances.add(t.getRecipientId(), sign * t.getAmountNQT());
+        if (entry.paid != null) {
+            for (long id : entry.paid) {
+                paid.add(id, sign);
+            }
+        }
+    }
+
+    private static void reload(long now) {
+        long loadVersion;
+        synchronized (lock) {
+            if (reloading || (!stale && now - lastReload < RELOAD_SECONDS * 1000L)) {
+                return;
+            }
+            reloading = true;
+            loadVersion = version;
+        }
+        try {
+            List<Transaction> transactions = new ArrayList<>();
+            try (DbIterator<? extends Transaction> unconfirmedTransactions = Nxt.getTransactionProcessor().getAllUnconfirmedTransactions()) {
+                while (unconfirmedTransactions.hasNext()) {
+                    transactions.add(unconfirmedTransactions.next());
+                }
+            }
+            synchronized (lock) {
+                if (version != loadVersion) {
+                    // an event came in while loading, whatever was loaded may already be outdated
+                    return;
+                }
+                Map<Long, Entry> known = new HashMap<>(pool);
+                pool.clear();
+                unextracted.clear();
+                balances.clear();
+                paid.clear();
+                for (Transaction t : transactions) {
+                    Entry entry = new Entry(t);
+                    Entry old = known.get(t.getId());
+                    if (old != null) {
+                        entry.paid = old.paid;
+                        entry.resolved = old.resolved;
+                    }
+                    pool.put(t.getId(), entry);
+                    account(entry, 1);
+                    if (entry.paid == null) {
+                        unextracted.add(entry);
+                    }
+                }
+                version++;
+                stale = false;
+                lastReload = now;
+            }
+        } finally {
+            synchronized (lock) {
+                reloading = false;
+            }
+        }
     }
-}
 
+    private static void extract(long now) {
+        boolean retry = nextRetry != 0 && now >= nextRetry;
+        List<Entry> todo;
+        synchronized (lock) {
+            if (unextracted.isEmpty() && !retry) {
+                return;
+            }
+            todo = new ArrayList<>(unextracted);
+            unextracted.clear();
+            if (retry) {
+                for (Entry entry : pool.values()) {
+                    if (entry.paid != null && !entry.resolved) {
+                        todo.add(entry);
+                    }
+                }
+                nextRetry = 0;
+            }
+        }
 
+        // the database lookups happen outside the lock, events keep coming in meanwhile
+        List<long[]> extracted = new ArrayList<>(todo.size());
+        for (Entry entry : todo) {
+            List<Pair<Long, Long>> payments = MessageEncoder.extractPaymentsFromTX(entry.transaction);
+            long[] ids = new long[payments.size()];
+            for (int i = 0; i < ids.length; ++i) {
+                ids[i] = payments.get(i).getElement0();
+            }
+            extracted.add(ids);
+        }
+
+        synchronized (lock) {
+            for (int i = 0; i < todo.size(); ++i) {
+                Entry entry = todo.get(i);
+                if (pool.get(entry.transaction.getId()) != entry) {
+                    continue;
+                }
+                account(entry, -1);
+                entry.paid = extracted.get(i);
+                entry.resolved = entry.paid.length > 0 || !isPaymentMessage(entry.transaction);
+                account(entry, 1);
+                if (!entry.resolved && nextRetry == 0) {
+                    nextRetry = now + RETRY_SECONDS * 1000L;
+                }
+            }
+            version++;
+        }
+    }
+
+    private static boolean isPaymentMessage(Transaction t) {
+        Appendix.Message message = t.getMessage();
+        return message != null && message.isText() && Convert.toString(message.getMessage(), true).startsWith("/!");
+    }
+}
@@ -1,16 +1,17 @@
 package org.xel;
-import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.TreeSet;
 import java.util.concurrent.ThreadLocalRandom;
 
 import org.json.simple.JSONArray;
 import org.xel.computation.CommandNewWork;
 import org.xel.computation.ComputationConstants;
+import org.xel.computation.ProgramCache;
 import org.xel.computation.Scaler;
 import org.xel.db.*;
 import org.xel.util.*;
@@ -54,6 +55,22 @@ public final class Work {
         @Override
         protected void save(final Connection con, final Work shuffling) throws SQLException {
             shuffling.save(con);
+            ActiveWorkRegistry.saved(shuffling);
+            if (shuffling.isClosed()) {
+                ProgramCache.evict(shuffling.getId());
+            }
+        }
+
+        @Override
+        public void rollback(int height) {
+            super.rollback(height);
+            ActiveWorkRegistry.rolledBack();
+        }
+
+        @Override
+        public void truncate() {
+            super.truncate();
+            ActiveWorkRegistry.rolledBack();
         }
 
     };
@@ -64,8 +81,9 @@ public final class Work {
     static {
         Nxt.getTemporaryComputationBlockchainProcessor().addListener(block -> {
             final List<Work> shufflings = new ArrayList<>();
-            try (DbIterator<Work> iterator = Work.getActiveWork()) {
-                for (final Work shuffling : iterator) shufflings.add(shuffling);
+            for (final long id : Work.getWorksToCheckForAutoClose(block.getHeight())) {
+                Work shuffling = Work.getWork(id);
+                if (shuffling != null) shufflings.add(shuffling);
             }
             shufflings.forEach(shuffling -> {
                 shuffling.CheckForAutoClose(block);
@@ -73,6 +91,21 @@ public final class Work {
         }, BlockchainProcessor.Event.AFTER_BLOCK_APPLY_COMPUTATION);
     }
 
+    // CheckForAutoClose only changes works that time out at this height or whose sender can not pay for all of its
+    // works. Closing works only lowers what a sender has to pay, so a sender that can pay for all of them now can do
+    // so after any of them closed as well, and its works are skipped. In id order, as getActiveWork returns them.
+    private static TreeSet<Long> getWorksToCheckForAutoClose(int height) {
+        TreeSet<Long> ids = ActiveWorkRegistry.getTimingOut(height);
+        for (long accountId : ActiveWorkRegistry.getSenders()) {
+            try {
+                checkBalance(accountId);
+            } catch (NxtException.NotValidException e) {
+                ids.addAll(ActiveWorkRegistry.getWorksBySender(accountId));
+            }
+        }
+        return ids;
+    }
+
     public String getSource_code() {
         return source_code;
     }
@@ -254,25 +287,16 @@ public final class Work {
     }
 
     public static long getGrabs() {
-        long grabs = 0;
-        try(DbIterator<Work> it = Work.getActiveWork()){
-            while(it.hasNext()){
-                Work w = (it.next());
-                grabs += w.getXel_per_pow() * (w.getCap_number_pow()-w.getReceived_pows()) + (w.getIterations_left()*w.bounty_limit_per_iteration*w.xel_per_bounty - w.received_bounties*w.xel_per_bounty);
-            }
-        }
-        return grabs;
+        return ActiveWorkRegistry.getLiability();
     }
 
     public static long getGrabsByUser(long sender_account_id) {
-        long grabs = 0;
-        try(DbIterator<Work> it = Work.getActiveWorkByUser(sender_account_id)){
-            while(it.hasNext()){
-                Work w = (it.next());
-                grabs += w.getXel_per_pow() * (w.getCap_number_pow()-w.getReceived_pows()) + (w.getIterations_left()*w.bounty_limit_per_iteration*w.xel_per_bounty - w.received_bounties*w.xel_per_bounty);
-            }
-        }
-        return grabs;
+        return ActiveWorkRegistry.getLiability(sender_account_id);
+    }
+
+    // what the sender still has to pay for this work if all outstanding pows and bounties come in
+    long getLiability() {
+        return this.getXel_per_pow() * (this.getCap_number_pow()-this.getReceived_pows()) + (this.getIterations_left()*this.bounty_limit_per_iteration*this.xel_per_bounty - this.received_bounties*this.xel_per_bounty);
     }
 
 
@@ -463,6 +487,10 @@ public final class Work {
     }
 
     public void canAccountStillPayForThisJob(long accountId) throws NxtException.NotValidException {
+        checkBalance(accountId);
+    }
+
+    private static void checkBalance(long accountId) throws NxtException.NotValidException {
         // See if account is known on the main chain
         Account acc = Account.getAccount(accountId);
         if(acc == null){
@@ -531,8 +559,7 @@ public final class Work {
         response.put("storage_size", work.storage_size);
 
 
-        BigInteger myTarget = Scaler.get(Nxt.getTemporaryComputationBlockchain().getLastBlock().getPowTarget());
-        response.put("target", String.format("%032x", myTarget));
+        response.put("target", Scaler.getTarget(Nxt.getTemporaryComputationBlockchain().getLastBlock().getPowTarget()).getHex());
 
 
         return response;
@@ -546,7 +573,12 @@ public final class Work {
     }
 
     public int[] getStorage(long storage_slot){
-        int[] storage_area = new int[storage_size];
+        return Convert.byte2int(getStorageBytes(storage_slot));
+    }
+
+    // same as getStorage, but as the big-endian bytes the bounty was submitted with
+    public byte[] getStorageBytes(long storage_slot){
+        byte[] storage_area = new byte[storage_size * 4];
         if (storage_slot>=0 && storage_slot < bounty_limit_per_iteration) {
             // only fill for reasonable storage slot
 
@@ -560,15 +592,8 @@ public final class Work {
             // appearently we know we have at least a full round, but there might be also bounties at the end not belonging to the last full round, i.e., to the new unfinished round which we do not
             // consider 'mature combined storage' yet. Make sure to get the right indices here to pull from the db
 
-            int unfinished = this.getReceived_bounties() % bounty_limit_per_iteration;
-            try(DbIterator<PowAndBounty> it = PowAndBounty.getLastBountiesRelevantForStorageGeneration(this.id, fullrounds, unfinished, storage_slot)){ // the problem from above is handled in this function
-                PowAndBounty bty = it.next();
-                int[] resbty = Convert.byte2int(bty.getSubmitted_storage());
-                if(resbty.length != storage_size) return storage_area; // sth went wrong, just exit
-                for (int i = 0; i < storage_size; ++i) {
-                    storage_area[i] = resbty[i];
-                }
-            }
+            // every slot of the round is read once and kept, see StorageSnapshots
+            return StorageSnapshots.getStorage(this, (int) storage_slot);
         }
         return storage_area;
     }
@@ -604,15 +629,8 @@ public final class Work {
 
         }
         if(storage_slot==-100) {
-            JSONArray az = new JSONArray();
             // And also create the bounty m arrays here
-            try(DbIterator<PowAndBounty> it = PowAndBounty.getBountiesLimited(work.id)){
-                while (it.hasNext()) {
-                    PowAndBounty h = it.next();
-                    az.add(h.getJSONInts());
-                }
-            }
-            response.put("bounties", az);
+            response.put("bounties", PowAndBounty.getBountiesJSONInts(work.id, work.block_id));
         }
         return response;
     }
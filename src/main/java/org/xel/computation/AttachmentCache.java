@@ -0,0 +1,111 @@
+package org.xel.computation;
+
+import org.xel.BlockchainProcessor;
+import org.xel.Nxt;
+import org.xel.NxtException;
+import org.xel.Transaction;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+// Bounded cache of the joined work packages of chunked computation messages, keyed by the transaction carrying the
+// final chunk, so the referenced transactions of a chain are looked up once and not again for the unconfirmed pool,
+// the verification fan out and the two passes of the block apply. Chains that can not be followed (yet) or do not
+// join to a work package are not cached, they are looked at again the next time.
+public final class AttachmentCache {
+
+    private static final class Entry {
+        private final String fullHash;
+        private final ByteBuffer workPackage;
+
+        private Entry(String fullHash, ByteBuffer workPackage) {
+            this.fullHash = fullHash;
+            this.workPackage = workPackage;
+        }
+    }
+
+    private static final int capacity = Math.max(1, Nxt.getIntProperty("nxt.attachmentCacheSize", 1024));
+
+    private static final Map<Long, Entry> packages = new LinkedHashMap<Long, Entry>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private AttachmentCache() {}
+
+    static void init() {
+        Nxt.getTemporaryComputationBlockchainProcessor().addListener(block -> clear(), BlockchainProcessor.Event.BLOCK_POPPED_COMPUTATION);
+        Nxt.getTemporaryComputationBlockchainProcessor().addListener(block -> clear(), BlockchainProcessor.Event.RESCAN_BEGIN_COMPUTATION);
+    }
+
+    // the work package of the chain t is the final chunk of, the same as joining the messages extractMessages returns
+    static ByteBuffer getWorkPackage(Transaction t) throws NxtException.ValidationException {
+        if (t == null) {
+            throw new NxtException.NotValidException("This transaction is not a valid work-encoder");
+        }
+        Entry entry;
+        synchronized (packages) {
+            entry = packages.get(t.getId());
+        }
+        if (entry != null && entry.fullHash.equals(t.getFullHash())) {
+            hits.incrementAndGet();
+            return entry.workPackage;
+        }
+        misses.incrementAndGet();
+
+        ByteBuffer workPackage = MessageEncoder.joinWorkPackage(MessageEncoder.extractMessages(t));
+        if (workPackage != null) {
+            synchronized (packages) {
+                packages.put(t.getId(), new Entry(t.getFullHash(), workPackage));
+            }
+        }
+        return workPackage;
+    }
+
+    static void clear() {
+        synchronized (packages) {
+            packages.clear();
+        }
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static int getSize() {
+        synchronized (packages) {
+            return packages.size();
+        }
+    }
+
+    public static int getCapacity() {
+        return capacity;
+    }
+}
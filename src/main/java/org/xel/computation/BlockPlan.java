@@ -0,0 +1,101 @@
+package org.xel.computation;
+
+import org.xel.Appendix;
+import org.xel.Block;
+import org.xel.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ The computation attachments of one block, decoded once and sorted into the two passes processBlockInternal applies
+ them in: first new works, cancels and POWs, then the bounties. Within a pass the block order is kept, a cancel and a
+ POW for the same work have to be applied in the order they were mined.
+ */
+final class BlockPlan {
+
+    static final class Step {
+        private final Transaction transaction;
+        private final IComputationAttachment attachment;
+
+        private Step(Transaction transaction, IComputationAttachment attachment) {
+            this.transaction = transaction;
+            this.attachment = attachment;
+        }
+
+        Transaction getTransaction() {
+            return transaction;
+        }
+
+        IComputationAttachment getAttachment() {
+            return attachment;
+        }
+    }
+
+    private final List<Step> first = new ArrayList<>();
+    private final List<Step> bounties = new ArrayList<>();
+    private final List<Step> submissions = new ArrayList<>();
+
+    private BlockPlan() {}
+
+    static BlockPlan decode(Block block) {
+        BlockPlan plan = new BlockPlan();
+        for (Transaction t : block.getTransactions()) {
+            Appendix.Message m = t.getMessage();
+            if (m == null || !MessageEncoder.checkMessageForPiggyback(m, true, false)) continue;
+            IComputationAttachment att;
+            try {
+                // Allow the decoding of the attachment
+                att = MessageEncoder.decodeAttachment(t);
+            } catch (Exception e) {
+                // generous catch, do not allow anything to cripple the blockchain integrity
+                e.printStackTrace();
+                continue;
+            }
+            if (att == null) continue;
+
+            Step step = new Step(t, att);
+            if (att instanceof CommandPowBty) {
+                plan.submissions.add(step);
+                if (!((CommandPowBty) att).isIs_proof_of_work()) {
+                    plan.bounties.add(step);
+                    continue;
+                }
+            }
+            plan.first.add(step);
+        }
+        return plan;
+    }
+
+    // new works, cancels and POWs in block order
+    List<Step> getFirstPass() {
+        return Collections.unmodifiableList(first);
+    }
+
+    // bounties in block order
+    List<Step> getBounties() {
+        return Collections.unmodifiableList(bounties);
+    }
+
+    // POWs and bounties in block order
+    List<Step> getSubmissions() {
+        return Collections.unmodifiableList(submissions);
+    }
+}
@@ -0,0 +1,116 @@
+package org.xel.computation;
+
+import org.xel.Block;
+import org.xel.Nxt;
+import org.xel.Transaction;
+import org.xel.util.Logger;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Runs the code executions of all POW/bounty submissions of a computation block in parallel before the block is
+ applied. All database reads happen on the calling thread, the workers only run the verifier.
+ The apply itself stays serial and in block order: ExecutionEngine.compute picks up a precomputed result only if the
+ inputs it builds at that point are exactly the ones that were verified ahead, otherwise it verifies again. A round
+ switch in the middle of the block therefore cannot change the outcome.
+ */
+public final class BlockVerification {
+
+    private static final class Prepared {
+        private final VerificationRequest request;
+        private final Future<ComputationResult> result;
+
+        private Prepared(VerificationRequest request, Future<ComputationResult> result) {
+            this.request = request;
+            this.result = result;
+        }
+    }
+
+    // number of verifications that may run at the same time, also the number of verifier sandboxes
+    private static final int parallelism = Math.max(1, Nxt.getIntProperty("nxt.verificationParallelism", Runtime.getRuntime().availableProcessors()));
+
+    private static final Map<String, Prepared> prepared = new ConcurrentHashMap<>();
+    private static final ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+        Thread thread = new Thread(runnable, "BlockVerification worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private BlockVerification() {}
+
+    static void prepare(Block block, BlockPlan plan) {
+        for (BlockPlan.Step step : plan.getSubmissions()) {
+            Transaction t = step.getTransaction();
+            try {
+                VerificationRequest request = ((CommandPowBty) step.getAttachment()).verificationRequest(t, block);
+                if (request == null) continue;
+                prepared.computeIfAbsent(key(request), key -> new Prepared(request, executor.submit(() -> VerificationResultCache.verify(request))));
+            } catch (Exception e) {
+                // the serial apply will run into the same problem and deal with it
+                Logger.logDebugMessage("Could not prepare verification of tx " + t.getStringId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // the precomputed result for exactly this request, or null if there is none
+    static ComputationResult getResult(VerificationRequest request) throws Exception {
+        Prepared p = prepared.get(key(request));
+        if (p == null || !matches(p.request, request)) {
+            return null;
+        }
+        try {
+            return p.result.get();
+        } catch (ExecutionException e) {
+            // report the failure the same way a serial verification would have
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } catch (CancellationException e) {
+            return null;
+        }
+    }
+
+    static void finish() {
+        prepared.values().forEach(p -> p.result.cancel(true));
+        prepared.clear();
+    }
+
+    public static void shutdown() {
+        finish();
+        executor.shutdownNow();
+    }
+
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    private static String key(VerificationRequest request) {
+        return request.workId + ":" + ExecutionEngine.bytesToHex(request.multiplicator) + ":" + ExecutionEngine.bytesToHex(request.publicKey);
+    }
+
+    private static boolean matches(VerificationRequest a, VerificationRequest b) {
+        return a.workId == b.workId && a.blockId == b.blockId && a.nocache == b.nocache
+                && a.program.getHash().equals(b.program.getHash())
+                && Arrays.equals(a.target, b.target) && Arrays.equals(a.publicKey, b.publicKey)
+                && Arrays.equals(a.multiplicator, b.multiplicator) && Arrays.equals(a.storage, b.storage);
+    }
+}
@@ -140,12 +140,12 @@ public class CommandNewWork extends IComputationAttachment {
                     if (isCompressed(this.sourceCodeCompressed)) {
                         GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(this.sourceCodeCompressed));
                         BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(gis, "UTF-8"));
-                        String outStr = "";
+                        StringBuilder outStr = new StringBuilder();
                         String line;
                         while ((line = bufferedReader.readLine()) != null) {
-                            outStr += line + "\n";
+                            outStr.append(line).append("\n");
                         }
-                        this.sourceCode = outStr.getBytes("UTF-8");
+                        this.sourceCode = outStr.toString().getBytes("UTF-8");
                         if (this.sourceCode.length > MAX_UNCOMPRESSED_WORK_SIZE)
                             this.sourceCode = new byte[0];
                     }
@@ -9,7 +9,6 @@ import org.xel.util.Logger;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 
@@ -223,15 +222,8 @@ public class CommandPowBty extends IComputationAttachment {
         }
     }
 
-    byte[] integersToBytes(int[] values) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        DataOutputStream dos = new DataOutputStream(baos);
-        for(int i=0; i < values.length; ++i)
-        {
-            dos.writeInt(values[i]);
-        }
-
-        return baos.toByteArray();
+    static byte[] targetBytes(long powTarget) {
+        return Scaler.getTarget(powTarget).getBytes();
     }
 
     @Override
@@ -255,59 +247,8 @@ public class CommandPowBty extends IComputationAttachment {
         if(!lightMode)
             validated = true;
 
-        if (this.is_proof_of_work && transaction.getDeadline()!=1) return false;
-        if (!this.is_proof_of_work && transaction.getDeadline()!=3) return false;
-        if (this.work_id == 0) return false;
-        Work w = Work.getWork(this.work_id);
-        if (w == null) {
-            Logger.logDebugMessage("Work verification failed: no such work.");
-            return false;
-        }
-        if (w.isClosed() == true) {
-            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: work is closed.");
-            return false;
-        }
-        if (w.getCurrentRound() != this.getCurrent_round()) return false;
-
-        byte[] myMultiplier = this.getMultiplier();
-        if(PowAndBounty.hasMultiplier(w.getId(), myMultiplier)) {
-            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: multiplier already in database.");
-            return false;
-        }
-
-        // checking multiplicator length requirements
-        if (multiplier.length != ComputationConstants.MULTIPLIER_LENGTH) {
-            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: multiplier length is incorrect.");
-            return false;
-        }
-
-        // checking pow_hash length requirements once again
-        if (hash.length != ComputationConstants.MD5LEN) {
-            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: pow_hash length is incorrect");
-            return false;
-        }
-
-        // !! if storage size is larger than 0 this indicates the presence of a storage. Therefore, storage bucket must be in a valid range
-        if((w.getStorage_size()>0) && (this.storage_bucket >= w.getBounty_limit_per_iteration() || this.storage_bucket < 0)) {
-            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: storage_bucket index exceeds bounds: got " + this.storage_bucket + " but limits were [0, " + w.getBounty_limit_per_iteration() + "].");
-            return false;
-        }
-
-        // !! otherwise, if storage_size == 0, then no storage is there and storage_bucket must be -1
-        if(w.getStorage_size()==0 && this.storage_bucket != -1) {
-            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: storage_bucket index must be -1 because there simply is no storage.");
-            return false;
-        }
-
-
-        if (this.isIs_proof_of_work()==false && (submitted_storage.length/4 != w.getStorage_size())) {
-            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: the submitted_storage does not match the works original storage size (" + String.valueOf(submitted_storage.length/4) + " != " + String.valueOf(w.getStorage_size()) + ").");
-            return false;
-        }
-        if (this.isIs_proof_of_work()==true && (submitted_storage.length!=0)) {
-            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: the submitted_storage must be empty for POW.");
-            return false;
-        }
+        Work w = precheck(transaction);
+        if (w == null) return false;
 
         long lastBlockId = 0;
         long lastBlocksTarget = 0;
@@ -326,17 +267,7 @@ public class CommandPowBty extends IComputationAttachment {
                     "block: " + transaction.getBlock().getStringId());
         }
 
-        BigInteger myTarget = Scaler.get(lastBlocksTarget);
-        int[] target = Convert.bigintToInts(myTarget,4);
-        // safeguard
-        if(target.length!=4) target = new int[]{0,0,0,0};
-        byte[] tgt;
-        try {
-            tgt = integersToBytes(target);
-        } catch (IOException e) {
-            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " due to unhandled exception. You are probably hard-forked on this job, don't worry about it ... it won't affect other jobs.");
-            return false;
-        }
+        byte[] tgt = targetBytes(lastBlocksTarget);
 
         // At this point, no need to execute the rest if we already did this on prevalidation
         if(lightMode==false && validationCache.has(transaction.getId(), lastBlockId)){
@@ -382,6 +313,83 @@ public class CommandPowBty extends IComputationAttachment {
     }
 
 
+    // The checks of a submission that come before the code execution, shared by validate() and verificationRequest().
+    // Returns the work the submission is for, or null if it fails one of them.
+    private Work precheck(Transaction transaction) {
+        if (this.is_proof_of_work && transaction.getDeadline()!=1) return null;
+        if (!this.is_proof_of_work && transaction.getDeadline()!=3) return null;
+        if (this.work_id == 0) return null;
+        Work w = Work.getWork(this.work_id);
+        if (w == null) {
+            Logger.logDebugMessage("Work verification failed: no such work.");
+            return null;
+        }
+        if (w.isClosed() == true) {
+            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: work is closed.");
+            return null;
+        }
+        if (w.getCurrentRound() != this.getCurrent_round()) return null;
+
+        byte[] myMultiplier = this.getMultiplier();
+        if(PowAndBounty.hasMultiplier(w.getId(), myMultiplier)) {
+            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: multiplier already in database.");
+            return null;
+        }
+
+        // checking multiplicator length requirements
+        if (multiplier.length != ComputationConstants.MULTIPLIER_LENGTH) {
+            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: multiplier length is incorrect.");
+            return null;
+        }
+
+        // checking pow_hash length requirements once again
+        if (hash.length != ComputationConstants.MD5LEN) {
+            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: pow_hash length is incorrect");
+            return null;
+        }
+
+        // !! if storage size is larger than 0 this indicates the presence of a storage. Therefore, storage bucket must be in a valid range
+        if((w.getStorage_size()>0) && (this.storage_bucket >= w.getBounty_limit_per_iteration() || this.storage_bucket < 0)) {
+            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: storage_bucket index exceeds bounds: got " + this.storage_bucket + " but limits were [0, " + w.getBounty_limit_per_iteration() + "].");
+            return null;
+        }
+
+        // !! otherwise, if storage_size == 0, then no storage is there and storage_bucket must be -1
+        if(w.getStorage_size()==0 && this.storage_bucket != -1) {
+            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: storage_bucket index must be -1 because there simply is no storage.");
+            return null;
+        }
+
+
+        if (this.isIs_proof_of_work()==false && (submitted_storage.length/4 != w.getStorage_size())) {
+            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: the submitted_storage does not match the works original storage size (" + String.valueOf(submitted_storage.length/4) + " != " + String.valueOf(w.getStorage_size()) + ").");
+            return null;
+        }
+        if (this.isIs_proof_of_work()==true && (submitted_storage.length!=0)) {
+            Logger.logDebugMessage("Work " + String.valueOf(w.getId()) + " verification failed: the submitted_storage must be empty for POW.");
+            return null;
+        }
+
+        return w;
+    }
+
+    // Inputs of the code execution validate() is going to run for this submission in the given block, or null if
+    // validate() will not get that far (cheap checks fail, or the prevalidation shortcut applies)
+    VerificationRequest verificationRequest(Transaction transaction, Block block) {
+        Work w = precheck(transaction);
+        if (w == null) return null;
+        if (validationCache.has(transaction.getId(), block.getPreviousBlockId())) return null;
+
+        long lastBlocksTarget = block.getPreviousBlockPowTarget();
+        if (lastBlocksTarget == 0) lastBlocksTarget = 1;
+        try {
+            return new VerificationRequest(targetBytes(lastBlocksTarget), this.publickey, w.getBlock_id(), multiplier, work_id,
+                    ProgramCache.get(work_id), new ExecutionEngine().getStorageBytes(work_id, storage_bucket), false);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     @Override
     void apply(Transaction transaction) {
         if (!validate(transaction))
@@ -4,6 +4,7 @@ import org.xel.*;
 import org.xel.util.Logger;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.Properties;
 import java.util.Scanner;
 
@@ -87,6 +88,13 @@ public class ExecutionEngine {
         return combined_storage;
     }
 
+    public byte[] getStorageBytes(long jobId, long storage_idx) throws FileNotFoundException {
+        Work w = Work.getWork(jobId);
+        if(w==null) throw new FileNotFoundException("No job with id " + jobId);
+        if(w.getStorage_size()==0) return new byte[0];
+        return w.getStorageBytes(storage_idx);
+    }
+
     public int[] getDummyStorage() throws FileNotFoundException {
         int[] storage = new int[1000];
         return storage;
@@ -95,107 +103,104 @@ public class ExecutionEngine {
 
 
     public ComputationResult compute(final byte[] target, final byte[] publicKey, final long blockId, final byte[] multiplicator, final long workId, final int storage_idx, boolean nocache) throws Exception {
-        String epl;
+        ProgramCache.Program program;
         if (workId == -1)
-            epl = getEplCode(getStringProperty("nxt.test_file"));
+            program = ProgramCache.forSource(workId, getEplCode(getStringProperty("nxt.test_file")));
         else
-            epl = getEplCode(workId);
+            program = ProgramCache.get(workId);
 
-        return compute(target, publicKey, blockId, multiplicator, workId, epl, storage_idx, nocache);
+        return compute(target, publicKey, blockId, multiplicator, workId, program, storage_idx, nocache);
     }
 
     public ComputationResult compute(final byte[] target, final byte[] publicKey, final long blockId, final byte[] multiplicator, final long workId, String epl, final int storage_idx, boolean nocache) throws Exception {
-        int[] storage = null;
+        return compute(target, publicKey, blockId, multiplicator, workId, ProgramCache.forSource(workId, epl), storage_idx, nocache);
+    }
+
+    private ComputationResult compute(final byte[] target, final byte[] publicKey, final long blockId, final byte[] multiplicator, final long workId, ProgramCache.Program program, final int storage_idx, boolean nocache) throws Exception {
+        byte[] storage = null;
         if(workId == -1)
-            storage = getDummyStorage();
+            storage = new byte[getDummyStorage().length * 4];
         else
-            storage = getStorage(workId, storage_idx);
+            storage = getStorageBytes(workId, storage_idx);
 
-        FileWriter fileWriter = new FileWriter("work/code.epl");
-        PrintWriter printWriter = new PrintWriter(fileWriter);
-        printWriter.print(epl);
-        printWriter.flush();
-        printWriter.close();
+        VerificationRequest request = new VerificationRequest(target, publicKey, blockId, multiplicator, workId, program, storage, nocache);
+        ComputationResult r = BlockVerification.getResult(request);
+        if(r == null)
+            r = VerificationResultCache.verify(request);
 
-        ComputationResult r = new ComputationResult();
+        if(dda) {
+            System.out.println("Result is POW: " + r.isPow);
+            System.out.println("Result is BTY: " + r.isBty);
+            System.out.println("Pow Hash: " + bytesToHex(r.powHash));
+        }
 
-        String cmd = "";
-        if(!nocache)
-            cmd = String.format("./xel_miner --test-target %s --test-publickey %s --test-multiplicator %s --test-block %d --test-work %d --verify-only --test-wcet-main %d --test-wcet-verify %d --deadswitch %d --test-stdin --test-limit-storage %d --test-vm code.epl", bytesToHex(target), bytesToHex(publicKey), bytesToHex(multiplicator), blockId, workId, ComputationConstants.MAX_MAIN_WCET, ComputationConstants.MAX_VERIFY_WCET, ComputationConstants.MAX_EXECUTION_TIME_IN_S, ComputationConstants.MAX_STORAGE_SIZE);
-        else
-            cmd = String.format("./xel_miner --test-avoidcache --test-target %s --test-publickey %s --test-multiplicator %s --test-block %d --test-work %d --verify-only --test-wcet-main %d --test-wcet-verify %d --deadswitch %d --test-stdin --test-limit-storage %d --test-vm code.epl", bytesToHex(target), bytesToHex(publicKey), bytesToHex(multiplicator), blockId, workId, ComputationConstants.MAX_MAIN_WCET, ComputationConstants.MAX_VERIFY_WCET, ComputationConstants.MAX_EXECUTION_TIME_IN_S, ComputationConstants.MAX_STORAGE_SIZE);
-
-        Logger.logDebugMessage(cmd);
-        Process process=Runtime.getRuntime().exec(cmd,
-                null, new File("./work/"));
-        BufferedReader reader =
-                new BufferedReader(new InputStreamReader(process.getInputStream()));
-        OutputStream stdin = process.getOutputStream(); // <- Eh?
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(stdin));
-
-        if(storage.length>0) {
-            String longstoryshort = "";
-            // now shoot out storage via STDIN
-            for (int i = 0; i < storage.length; ++i) {
-                longstoryshort += Integer.toUnsignedString(storage[i]) + "\n";
-            }
-            longstoryshort += "\n";
-            writer.write(longstoryshort);
-            writer.flush();
-            //Logger.logInfoMessage(longstoryshort.substring(0, Math.min(longstoryshort.length()-1, 10000)));
+        return r;
+    }
 
-        }
+    static String verifierLimits() {
+        return String.format("--test-wcet-main %d --test-wcet-verify %d --deadswitch %d --test-limit-storage %d", ComputationConstants.MAX_MAIN_WCET, ComputationConstants.MAX_VERIFY_WCET, ComputationConstants.MAX_EXECUTION_TIME_IN_S, ComputationConstants.MAX_STORAGE_SIZE);
+    }
 
+    static ComputationResult computeBySpawning(VerificationRequest request) throws Exception {
+        VerifierSandbox sandbox = VerifierSandbox.acquire();
+        Process process = null;
+        try {
+            sandbox.writeProgram(request.program);
 
-        String line;
-        process.waitFor();
+            String cmd = String.format("./xel_miner %s--test-target %s --test-publickey %s --test-multiplicator %s --test-block %d --test-work %d --verify-only %s %s --test-vm code.epl", (request.nocache) ? "--test-avoidcache " : "", bytesToHex(request.target), bytesToHex(request.publicKey), bytesToHex(request.multiplicator), request.blockId, request.workId, verifierLimits(), "--test-stdin");
 
-        String fullOutp = "";
-        while ( (line = reader.readLine()) != null) {
-            line = line.replaceAll("\\[\\d+m", "").trim();
+            Logger.logDebugMessage(cmd);
+            process = Runtime.getRuntime().exec(cmd,
+                    null, sandbox.getDirectory());
+            BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(process.getInputStream()));
+            OutputStream stdin = process.getOutputStream();
 
-            if(line.contains("ERROR") || line.contains("Error")) {
-                if(dda) {
+            // now shoot out storage via STDIN
+            if (request.storage.length > 0) {
+                writeStorage(request.storage, stdin);
+            }
+
+            VerifierOutput output = VerifierOutput.read(reader);
+            process.waitFor();
+
+            ComputationResult r;
+            try {
+                r = output.getResult();
+            } catch (IOException e) {
+                if (dda) {
                     Logger.logErrorMessage(cmd);
-                    Logger.logErrorMessage(fullOutp);
+                    Logger.logErrorMessage(output.getTail());
                 }
-                throw new IOException("EPL code produced error: " + line);
-            }
-            if(line.contains("DEBUG: POW Found:")){
-                Boolean res = Boolean.parseBoolean(line.substring(line.lastIndexOf(":")+2));
-                r.isPow = res;
-            }
-            if(line.contains("DEBUG: Bounty Found:")){
-                Boolean res = Boolean.parseBoolean(line.substring(line.lastIndexOf(":")+2));
-                r.isBty = res;
-            }
-            if(line.contains("DEBUG: storage size:")){
-                Integer res = Integer.parseInt(line.substring(line.lastIndexOf(":")+2));
-                r.storage_size = res;
+                throw e;
             }
-            if(line.contains("DEBUG: POW Hash:")){
-                byte[] res = hexStringToByteArray(line.substring(line.lastIndexOf(":")+2,line.lastIndexOf(":")+2+32));
-                r.powHash = res;
-            }
-            fullOutp += line + "\n";
-        }
 
-        if(process.exitValue()!=0) {
+            if (process.exitValue() != 0) {
                 System.err.println(cmd);
-                System.err.println(fullOutp);
-            throw new IOException("EPL code exited with error code.");
-        }
-
-        //Logger.logDebugMessage(fullOutp);
+                System.err.println(output.getTail());
+                throw new IOException("EPL code exited with error code.");
+            }
 
-        if(dda) {
-            System.out.println("Result is POW: " + r.isPow);
-            System.out.println("Result is BTY: " + r.isBty);
-            System.out.println("Pow Hash: " + bytesToHex(r.powHash));
+            return r;
+        } finally {
+            // a verification that failed or was cancelled must not leave its miner running in a sandbox handed out again
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            VerifierSandbox.release(sandbox);
         }
-
-        return r;
     }
 
+    // one unsigned decimal per line and an empty line at the end, built in one pass
+    static void writeStorage(byte[] storage, OutputStream stdin) throws IOException {
+        StringBuilder text = new StringBuilder(storage.length / 4 * 11 + 1);
+        for (int i = 0; i + 3 < storage.length; i += 4) {
+            int value = ((storage[i] & 0xFF) << 24) | ((storage[i + 1] & 0xFF) << 16) | ((storage[i + 2] & 0xFF) << 8) | (storage[i + 3] & 0xFF);
+            text.append(Integer.toUnsignedLong(value)).append('\n');
+        }
+        text.append('\n');
+        stdin.write(text.toString().getBytes(StandardCharsets.US_ASCII));
+        stdin.flush();
+    }
 
 }
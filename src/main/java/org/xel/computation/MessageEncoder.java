@@ -44,18 +44,14 @@ public class MessageEncoder {
 
 
     public static boolean useComputationEngine = Nxt.getBooleanProperty("nxt.enableComputationEngine");
-    public static Map<Long, Integer> stupidLimiterBty = new HashMap<Long, Integer>();
-    public static Map<Long, Integer> stupidLimiterPow = new HashMap<Long, Integer>();
 
-    public static synchronized CommandPowBty hasPowAndBountyContent(Transaction t){
+    public static CommandPowBty hasPowAndBountyContent(Transaction t){
         Appendix.Message m = t.getMessage();
         if(m==null ) return null;
 
         try {
-            Appendix.Message[] reconstructedChain = MessageEncoder.extractMessages(t);
-
             // Allow the decoding of the attachment
-            IComputationAttachment att = MessageEncoder.decodeAttachment(reconstructedChain);
+            IComputationAttachment att = MessageEncoder.decodeAttachment(t);
             if(att == null) return null;
 
             if(att instanceof CommandPowBty)
@@ -68,7 +64,7 @@ public class MessageEncoder {
         return null;
     }
 
-    public static synchronized boolean limitHit(Transaction transaction, CommandPowBty c){
+    public static boolean limitHit(Transaction transaction, CommandPowBty c){
 
         // basic simple test
         long wid = c.getWork_id();
@@ -78,34 +74,23 @@ public class MessageEncoder {
 
         //Logger.logDebugMessage("Checking stupidLimiters for work " + c.getWork_id() + ": pow = " + ((stupidLimiterPow.containsKey(w.getId())==false)?0:stupidLimiterPow.get(w.getId())) + " (of " + w.getCap_number_pow() + "), bty = " + ((stupidLimiterBty.containsKey(w.getId())==false)?0:stupidLimiterBty.get(w.getId())) + " (of " + w.getBounty_limit_per_iteration() + ")");
         if(c.isIs_proof_of_work()){
-            if(stupidLimiterPow.containsKey(w.getId())==false) return false;
-            return stupidLimiterPow.get(w.getId())>=25;
+            return SubmissionLimiter.getCount(w.getId(), true)>=25;
         }else{
-            if(stupidLimiterBty.containsKey(w.getId())==false) return false;
-            return stupidLimiterBty.get(w.getId())>=w.getBounty_limit_per_iteration();
+            return SubmissionLimiter.getCount(w.getId(), false)>=w.getBounty_limit_per_iteration();
         }
     }
 
-    public static synchronized void preValidate(Transaction transaction, CommandPowBty c) throws NxtException.NotCurrentlyValidException {
+    public static void preValidate(Transaction transaction, CommandPowBty c) throws NxtException.NotCurrentlyValidException {
 
 
+        // runs without any lock, submissions for different works (and the same one) are validated in parallel
         boolean ret = c.validate(transaction, true); // use light mode
         if(!ret) throw new NxtException.NotCurrentlyValidException("The submitted " + ((c.isIs_proof_of_work())?"POW":"BOUNTY") + " was simply wrong");
 
         // looks good enough to keep it for now, real validation will be performed later
-        if(c.isIs_proof_of_work()){
-            if(stupidLimiterPow.containsKey(c.getWork_id()))
-                stupidLimiterPow.put(c.getWork_id(), stupidLimiterPow.get(c.getWork_id())+1);
-            else
-                stupidLimiterPow.put(c.getWork_id(), 1);
-        } else{
-            if(stupidLimiterBty.containsKey(c.getWork_id()))
-                stupidLimiterBty.put(c.getWork_id(), stupidLimiterBty.get(c.getWork_id())+1);
-            else
-                stupidLimiterBty.put(c.getWork_id(), 1);
-        }
+        SubmissionLimiter.increment(c.getWork_id(), c.isIs_proof_of_work());
 
-        Logger.logDebugMessage("(PREVALIDATION PASSED) for submitted " + ((c.isIs_proof_of_work())?"POW":"BOUNTY") + " (limiter bty=" + stupidLimiterBty.get(c.getWork_id()) + ", pow = " + stupidLimiterPow.get(c.getWork_id()));
+        Logger.logDebugMessage("(PREVALIDATION PASSED) for submitted " + ((c.isIs_proof_of_work())?"POW":"BOUNTY") + " (limiter bty=" + SubmissionLimiter.getCount(c.getWork_id(), false) + ", pow = " + SubmissionLimiter.getCount(c.getWork_id(), true));
 
     }
 
@@ -193,109 +178,83 @@ public class MessageEncoder {
 
 
         // Check all TX for relevant stuff
+        // code executions of all submissions run in parallel up front, the apply below stays serial
+        // every attachment is decoded once, the verification fan out and both apply passes work off the same plan
+        BlockPlan plan = BlockPlan.decode(block);
+        BlockVerification.prepare(block, plan);
+        try {
+            applySubmissions(block, plan);
+        } finally {
+            BlockVerification.finish();
+        }
+
+        // Now clear all jobs that have not seen enough payments in the past
+        // Rule is, if more than 55 POW/BTY are open, we timeout this job immedeately
+        // only the works the registry counts that many unpaid submissions for are looked at
+        for(long id : ActiveWorkRegistry.getWorksWithUnpaidAbove(200)){
+            Work w = Work.getWork(id);
+            if(w == null) continue;
+            int unpaid = PowAndBounty.getUnpaidSubmissionCount(w.getId());
+            if(unpaid > 200){
+                w.CloseNoPayment(block);
+            }
+        }
+    }
+
+    private static void applySubmissions(Block block, BlockPlan plan){
 
         int powCounter = 0;
         int mintime = Integer.MAX_VALUE;
         int maxtime = 0;
 
-
-
         // first all pow and else
         // in second round the bounties
 
-        for(Transaction t : block.getTransactions()){
-
-
-
-            Appendix.Message m = t.getMessage();
-            if(m==null) continue;
-
-
-            if(MessageEncoder.checkMessageForPiggyback(m, true, false)){
-                try {
-                    Appendix.Message[] reconstructedChain = MessageEncoder.extractMessages(t);
-
-                    // Allow the decoding of the attachment
-                    IComputationAttachment att = MessageEncoder.decodeAttachment(reconstructedChain);
-                    if(att == null) continue;
-
-                    if(att instanceof CommandPowBty) {
-                        if (((CommandPowBty) att).isIs_proof_of_work())
-                            att.apply(t);
-                        else
-                            continue;
-                        if (((CommandPowBty) att).isIs_proof_of_work() && ((CommandPowBty) att).isValid()) {
-                            if (t.getTimestamp() > maxtime) maxtime = t.getTimestamp();
-                            if (t.getTimestamp() < mintime) mintime = t.getTimestamp();
-                            powCounter++;
-                        }else{
-                            ((CommandPowBty) att).setValidated(false);
-                            att.validate(t);
-                        }
+        for(BlockPlan.Step step : plan.getFirstPass()){
+            Transaction t = step.getTransaction();
+            IComputationAttachment att = step.getAttachment();
+            try {
+                if(att instanceof CommandPowBty) {
+                    att.apply(t);
+                    if (((CommandPowBty) att).isValid()) {
+                        if (t.getTimestamp() > maxtime) maxtime = t.getTimestamp();
+                        if (t.getTimestamp() < mintime) mintime = t.getTimestamp();
+                        powCounter++;
                     }else{
-                        att.apply(t);
+                        ((CommandPowBty) att).setValidated(false);
+                        att.validate(t);
                     }
-
-
-                } catch (Exception e) {
-                    // generous catch, do not allow anything to cripple the blockchain integrity
-                    e.printStackTrace();
-                    continue;
+                }else{
+                    att.apply(t);
                 }
-            }
-        }
-
-        for(Transaction t : block.getTransactions()){
 
 
-            Appendix.Message m = t.getMessage();
-            if(m==null) continue;
-
-
-
-            if(MessageEncoder.checkMessageForPiggyback(m, true, false)){
-                try {
-                    Appendix.Message[] reconstructedChain = MessageEncoder.extractMessages(t);
-
-                    // Allow the decoding of the attachment
-                    IComputationAttachment att = MessageEncoder.decodeAttachment(reconstructedChain);
-                    if(att == null) continue;
-
-                    if(att instanceof CommandPowBty) {
-                        if (((CommandPowBty) att).isIs_proof_of_work()) continue;
-                        att.apply(t);
-                    }
-
-
-
-                } catch (Exception e) {
-                    // generous catch, do not allow anything to cripple the blockchain integrity
-                    e.printStackTrace();
-                    continue;
-                }
+            } catch (Exception e) {
+                // generous catch, do not allow anything to cripple the blockchain integrity
+                e.printStackTrace();
+                continue;
             }
         }
-        block.calculatePowTarget(powCounter, mintime, maxtime);
-        // and clean the stupidLimiters
-        stupidLimiterPow.clear();
-        stupidLimiterBty.clear();
 
-        // Now clear all jobs that have not seen enough payments in the past
-        // Rule is, if more than 55 POW/BTY are open, we timeout this job immedeately
-        try(DbIterator<Work> it = Work.getActiveWork()){
-            while (it.hasNext()){
-                Work w = it.next();
-                int unpaid = PowAndBounty.getUnpaidSubmissionCount(w.getId());
-                if(unpaid > 200){
-                    w.CloseNoPayment(block);
-                }
+        for(BlockPlan.Step step : plan.getBounties()){
+            try {
+                step.getAttachment().apply(step.getTransaction());
+            } catch (Exception e) {
+                // generous catch, do not allow anything to cripple the blockchain integrity
+                e.printStackTrace();
+                continue;
             }
         }
+        block.calculatePowTarget(powCounter, mintime, maxtime);
+        // and start counting the stupidLimiters from zero
+        SubmissionLimiter.nextEpoch();
     }
 
 
 
     public static void init(){
+        AttachmentCache.init();
+        Scaler.init();
         if(Nxt.getBooleanProperty("nxt.enableComputationEngine")) {
             Nxt.getBlockchainProcessor().addListener(block -> {
                 GetLastBlockId.lastBlockId = block.getId();
@@ -464,6 +423,17 @@ public class MessageEncoder {
     }
 
     public static IComputationAttachment decodeAttachment(Appendix.Message[] m){
+        return decodeWorkPackage(joinWorkPackage(m));
+    }
+
+    // the attachment a (final chunk) transaction carries, the chain is only walked and joined on a cache miss
+    public static IComputationAttachment decodeAttachment(Transaction t) throws NxtException.ValidationException {
+        return decodeWorkPackage(AttachmentCache.getWorkPackage(t));
+    }
+
+    // the payload of all chunks without their magic as a read only buffer, null if it can not be put together.
+    // A single chunk is not copied, the buffer is a view into the message itself.
+    static ByteBuffer joinWorkPackage(Appendix.Message[] m){
         try {
 
             int total_length = 0;
@@ -472,6 +442,12 @@ public class MessageEncoder {
                 total_length = total_length + (m[i].getMessage().length - MessageEncoder.MAGIC.length);
             }
 
+            if (total_length == 0) return null; // safe guard
+
+            if (m.length == 1) {
+                return ByteBuffer.wrap(m[0].getMessage(), MessageEncoder.MAGIC.length, total_length).slice().asReadOnlyBuffer();
+            }
+
             byte[] work_package = new byte[total_length];
             int last_pos = 0;
 
@@ -481,9 +457,19 @@ public class MessageEncoder {
                 last_pos += msg.length;
             }
 
-            if (work_package.length == 0) return null; // safe guard
+            return ByteBuffer.wrap(work_package).asReadOnlyBuffer();
+        }catch(Exception e){
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // a new attachment object every time, they keep validation state
+    static IComputationAttachment decodeWorkPackage(ByteBuffer work_package){
+        if (work_package == null) return null;
+        try {
 
-            ByteBuffer wp_bb = ByteBuffer.wrap(work_package);
+            ByteBuffer wp_bb = work_package.duplicate(); // the parsers move the position, the package may be shared
 
             byte messageType = wp_bb.get();
             if(messageType == CommandsEnum.CREATE_NEW_WORK.getCode()){
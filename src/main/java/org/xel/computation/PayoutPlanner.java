@@ -0,0 +1,93 @@
+package org.xel.computation;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONStreamAware;
+import org.xel.Appendix;
+import org.xel.Constants;
+import org.xel.Nxt;
+import org.xel.PowAndBounty;
+import org.xel.UnconfirmedGetter;
+import org.xel.db.DbIterator;
+import org.xel.util.Logger;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+// Builds the payout transactions a work owner still has to send for the POWs and bounties of its open and recently
+// closed works. The unpaid submissions of all those works and their prices come from one query, bounties already paid
+// by an unconfirmed transaction are skipped with a set lookup, and every recipient gets its payment message built once.
+public final class PayoutPlanner {
+
+    private static final class Payout {
+        private final StringBuilder message = new StringBuilder();
+        private long amount = 0;
+    }
+
+    private PayoutPlanner() {}
+
+    // pairs of (unsigned transaction, prunable attachment) as GetState returns them in pendingPayouts
+    public static JSONArray plan(long accountId, byte[] publicKey) {
+        JSONArray payouts = new JSONArray();
+
+        UnconfirmedGetter.View unconfirmed = UnconfirmedGetter.getView();
+
+        Map<Long, Payout> earnings = new LinkedHashMap<>();
+        try (DbIterator<PowAndBounty.UnpaidSubmission> unpaid = PowAndBounty.getUnpaidSubmissionsByWorkOwner(accountId,
+                Nxt.getTemporaryComputationBlockchain().getHeight() - 5)) {
+            while (unpaid.hasNext()) {
+                PowAndBounty.UnpaidSubmission b = unpaid.next();
+
+                // is it really unpaid?
+                if (unconfirmed.isPaid(b.getId())) {
+                    Logger.logDebugMessage("Skipping unpaid BTY (" + b.getId() + " because it is in the Unconf cache");
+                    continue;
+                }
+
+                Payout payout = earnings.computeIfAbsent(b.getAccountId(), k -> new Payout());
+                if (payout.message.length() > 0) payout.message.append(',');
+                payout.message.append("/!").append(b.getId());
+                payout.amount += b.getAmount();
+
+                // Flush if message too long
+                if (payout.message.length() > Constants.MAX_ARBITRARY_MESSAGE_LENGTH - 16) { // arbitrary safegap
+                    add(payouts, payout, publicKey, 3, b.getAccountId());
+                    earnings.remove(b.getAccountId());
+                }
+            }
+        }
+
+        // Build all remaining TX
+        earnings.forEach((recipient, payout) -> add(payouts, payout, publicKey, 1, recipient));
+        return payouts;
+    }
+
+    private static void add(JSONArray payouts, Payout payout, byte[] publicKey, int deadline, long recipient) {
+        Appendix.Message prunablePlainMessage = new Appendix.Message(payout.message.toString(), true);
+        try {
+            Pair<JSONStreamAware, JSONStreamAware> pr = CustomTransactionBuilder.createTransactionPubkey(prunablePlainMessage, publicKey,
+                    deadline, payout.amount, recipient);
+            JSONArray ffb = new JSONArray();
+            ffb.add(pr.getElement0());
+            ffb.add(pr.getElement1());
+            payouts.add(ffb);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
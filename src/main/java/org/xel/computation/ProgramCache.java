@@ -0,0 +1,117 @@
+package org.xel.computation;
+
+import org.xel.Nxt;
+import org.xel.crypto.Crypto;
+import org.xel.util.Convert;
+
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+// Bounded cache of the EPL programs of open works, so repeated verifications of the same job neither go back to the
+// database for the source code nor make the verifier parse and compile it again
+public final class ProgramCache {
+
+    public static final class Program {
+        private final long workId;
+        private final String source;
+        private final String hash;
+
+        private Program(long workId, String source) {
+            this.workId = workId;
+            this.source = source;
+            this.hash = Convert.toHexString(Crypto.sha256().digest(source.getBytes(StandardCharsets.UTF_8)));
+        }
+
+        public long getWorkId() {
+            return workId;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        // identifies the program, a sandbox only rewrites its code.epl when it changes
+        public String getHash() {
+            return hash;
+        }
+    }
+
+    private static final int capacity = Math.max(1, Nxt.getIntProperty("nxt.programCacheSize", 64));
+
+    private static final Map<Long, Program> programs = new LinkedHashMap<Long, Program>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Program> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private ProgramCache() {}
+
+    static Program get(long workId) throws FileNotFoundException {
+        synchronized (programs) {
+            Program program = programs.get(workId);
+            if (program != null) {
+                hits.incrementAndGet();
+                return program;
+            }
+        }
+        misses.incrementAndGet();
+        Program program = new Program(workId, ExecutionEngine.getEplCode(workId));
+        synchronized (programs) {
+            programs.put(workId, program);
+        }
+        return program;
+    }
+
+    // programs that do not belong to a stored work (new work validation, tests) are never cached
+    static Program forSource(long workId, String source) {
+        return new Program(workId, source);
+    }
+
+    // called by the work table whenever a work is saved closed, however it was closed
+    public static void evict(long workId) {
+        synchronized (programs) {
+            programs.remove(workId);
+        }
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static int getSize() {
+        synchronized (programs) {
+            return programs.size();
+        }
+    }
+
+    public static int getCapacity() {
+        return capacity;
+    }
+}
@@ -1,12 +1,95 @@
 package org.xel.computation;
 
+import org.xel.BlockchainProcessor;
+import org.xel.Nxt;
+import org.xel.util.Convert;
+
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.MathContext;
 import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/*
+ The target of a compact pow target, in all the forms it is used in. The target of the last computation block is
+ derived once when the block is applied, every job in a getwork response and every submission validated against that
+ block get it from there. Targets of other blocks (validating a fork, or after a pop) are kept in a small LRU.
+ */
 public class Scaler {
+
+    private static final int RECENT_TARGETS = 64;
+
+    public static final class Target {
+        private final long powTarget;
+        private final BigInteger value;
+        private final String hex;
+        private final byte[] bytes;
+
+        private Target(long powTarget) {
+            this.powTarget = powTarget;
+            this.value = compute(powTarget);
+            this.hex = String.format("%032x", value);
+            int[] target = Convert.bigintToInts(value, 4);
+            // safeguard
+            if (target.length != 4) target = new int[]{0, 0, 0, 0};
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            for (int i : target) {
+                buffer.putInt(i);
+            }
+            this.bytes = buffer.array();
+        }
+
+        public BigInteger getValue() {
+            return value;
+        }
+
+        // 32 hex digits, as the target is shown to miners
+        public String getHex() {
+            return hex;
+        }
+
+        // the 4 big-endian ints handed to the verifier
+        public byte[] getBytes() {
+            return bytes.clone();
+        }
+    }
+
+    private static volatile Target current = null;
+
+    private static final Map<Long, Target> recent = new LinkedHashMap<Long, Target>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Target> eldest) {
+            return size() > RECENT_TARGETS;
+        }
+    };
+
+    static void init() {
+        Nxt.getTemporaryComputationBlockchainProcessor().addListener(block -> current = getTarget(block.getPowTarget()),
+                BlockchainProcessor.Event.AFTER_BLOCK_APPLY_COMPUTATION);
+    }
+
     public static BigInteger get(long powTarget){
+        return getTarget(powTarget).value;
+    }
+
+    public static Target getTarget(long powTarget) {
+        Target target = current;
+        if (target != null && target.powTarget == powTarget) {
+            return target;
+        }
+        synchronized (recent) {
+            target = recent.get(powTarget);
+            if (target == null) {
+                target = new Target(powTarget);
+                recent.put(powTarget, target);
+            }
+        }
+        return target;
+    }
+
+    private static BigInteger compute(long powTarget){
         MathContext mc = new MathContext(32, RoundingMode.HALF_EVEN);
         BigDecimal myTarget = new BigDecimal(ComputationConstants.MAXIMAL_WORK_TARGET);
         myTarget = myTarget.divide(BigDecimal.valueOf(((double)Long.MAX_VALUE/10000.0)), mc); // Note, our target in compact form is in range 1..LONG_MAX/100
@@ -0,0 +1,76 @@
+package org.xel.computation;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Number of POWs and bounties per work that passed prevalidation since the last computation block, without a lock.
+ Each counter holds the epoch it counts for in its upper half, so starting a new block is a single increment of the
+ epoch: counters of an older epoch read as zero and start over with the next submission.
+ */
+final class SubmissionLimiter {
+
+    private static final class Counters {
+        private final AtomicLong pow = new AtomicLong();
+        private final AtomicLong bty = new AtomicLong();
+    }
+
+    private static final ConcurrentHashMap<Long, Counters> works = new ConcurrentHashMap<>();
+    private static volatile int epoch = 1;
+
+    private SubmissionLimiter() {}
+
+    static int getCount(long workId, boolean isPow) {
+        Counters counters = works.get(workId);
+        if (counters == null) {
+            return 0;
+        }
+        return count((isPow ? counters.pow : counters.bty).get(), epoch);
+    }
+
+    // one more submission for the work, returns the new count
+    static int increment(long workId, boolean isPow) {
+        Counters counters = works.computeIfAbsent(workId, id -> new Counters());
+        AtomicLong counter = isPow ? counters.pow : counters.bty;
+        int current = epoch;
+        while (true) {
+            long state = counter.get();
+            int count = count(state, current) + 1;
+            if (counter.compareAndSet(state, ((long) current << 32) | count)) {
+                return count;
+            }
+        }
+    }
+
+    // called for every computation block, drops the counters of works that saw no submission during the last one.
+    // A submission counted at the very moment its idle counter is dropped is lost, that lets one more in at worst.
+    static void nextEpoch() {
+        int last = epoch;
+        epoch = last + 1;
+        works.values().removeIf(c -> idle(c.pow, last) && idle(c.bty, last));
+    }
+
+    private static boolean idle(AtomicLong counter, int epoch) {
+        return (int) (counter.get() >>> 32) < epoch;
+    }
+
+    private static int count(long state, int epoch) {
+        return (int) (state >>> 32) == epoch ? (int) state : 0;
+    }
+}
@@ -1,76 +1,146 @@
 package org.xel.computation;
 
-import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+/*
+ Concurrent set of (long, long) pairs whose entries expire after EXPIRY_SECONDS, give or take one SLOT_SECONDS.
+ Expiry works like a hashed time wheel: every SLOT_SECONDS get their own open addressing table, a put goes into the
+ table of the current slot and a has looks into the tables of the slots that did not expire yet. Old tables are
+ dropped as a whole when the wheel comes around, so there is no sweep, no lock and no allocation per call.
+ A table that is full drops further puts of its slot, which only costs a cache miss later.
+ */
 public class TimedCacheList {
 
-    private static int REFRESH_INTERVAL = 5;
-    // holds the last time the cache has been refreshed in millis
-    private volatile long lastRefreshDate = (new Date()).getTime();
+    private static final int EXPIRY_SECONDS = 240;
+    private static final int SLOT_SECONDS = 16;
+    private static final int LIVE_SLOTS = (EXPIRY_SECONDS + SLOT_SECONDS - 1) / SLOT_SECONDS + 1;
+    private static final int DEFAULT_SLOT_CAPACITY = 4096;
 
-    // indicates that cache is currently refreshing entries
-    private volatile boolean cacheCurrentlyRefreshing;
+    private static final int EMPTY = 0;
+    private static final int WRITING = 1;
+    private static final int READY = 2;
 
-    private Map<Pair<Long, Long>, Long> map = new HashMap<>();
+    private static final class Slot {
+        private final long epoch;
+        private final long[] entries; // key, value, key, value, ...
+        private final AtomicIntegerArray states;
+        private final AtomicInteger count = new AtomicInteger();
 
-    public void put(Long key, Long value) {
-        if (cacheNeedsRefresh()) {
-            refresh();
+        private Slot(long epoch, int capacity) {
+            this.epoch = epoch;
+            this.entries = new long[capacity * 2];
+            this.states = new AtomicIntegerArray(capacity);
         }
-        Pair<Long, Long> elem = new Pair<>(key,value);
-        map.put(elem, (new Date()).getTime());
-    }
 
-    public boolean has(Long key, Long value) {
-        Pair<Long, Long> elem = new Pair<>(key,value);
-        if (cacheNeedsRefresh()) {
-            refresh();
+        private void put(long key, long value) {
+            int capacity = states.length();
+            int start = index(key, value, capacity);
+            for (int probe = 0; probe < capacity; ++probe) {
+                int i = (start + probe) & (capacity - 1);
+                int state = states.get(i);
+                if (state == EMPTY && states.compareAndSet(i, EMPTY, WRITING)) {
+                    entries[2 * i] = key;
+                    entries[2 * i + 1] = value;
+                    states.set(i, READY); // publishes the entry to readers of the state
+                    count.incrementAndGet();
+                    return;
+                }
+                if (state == READY && entries[2 * i] == key && entries[2 * i + 1] == value) {
+                    return;
+                }
+            }
         }
-        if(map.containsKey(elem)) return true;
-        return false;
-    }
 
-    private boolean cacheNeedsRefresh() {
-        // make sure that cache is not currently being refreshed by some
-        // other thread.
-        if (cacheCurrentlyRefreshing) {
+        private boolean has(long key, long value) {
+            int capacity = states.length();
+            int start = index(key, value, capacity);
+            for (int probe = 0; probe < capacity; ++probe) {
+                int i = (start + probe) & (capacity - 1);
+                int state = states.get(i);
+                if (state == EMPTY) {
+                    return false;
+                }
+                if (state == READY && entries[2 * i] == key && entries[2 * i + 1] == value) {
+                    return true;
+                }
+            }
             return false;
         }
-        return ((new Date()).getTime() - lastRefreshDate)/1000 >= REFRESH_INTERVAL;
     }
 
-    private void refresh() {
-        // make sure the cache did not start refreshing between cacheNeedsRefresh()
-        // and refresh() by some other thread.
-        if (cacheCurrentlyRefreshing) {
-            return;
-        }
+    private final int slotCapacity;
+    private final AtomicReferenceArray<Slot> wheel = new AtomicReferenceArray<>(LIVE_SLOTS + 1);
 
-        // signal to other threads that cache is currently being refreshed.
-        cacheCurrentlyRefreshing = true;
+    public TimedCacheList() {
+        this(DEFAULT_SLOT_CAPACITY);
+    }
 
-        try {
-            long currTm = ((new Date()).getTime());
+    // slotCapacity is the number of distinct puts kept per SLOT_SECONDS, rounded up to a power of two
+    public TimedCacheList(int slotCapacity) {
+        this.slotCapacity = Integer.highestOneBit(Math.max(2, slotCapacity) * 2 - 1);
+    }
 
-            // refresh your cache contents here
-            for(Iterator<Map.Entry<Pair<Long, Long> ,Long>> it = map.entrySet().iterator(); it.hasNext();){
-                Map.Entry<Pair<Long, Long>, Long> entry = it.next();
-                if ((currTm - entry.getValue())/1000 > 240) {
-                    it.remove();
-                }
+    public void put(long key, long value) {
+        currentSlot(epoch()).put(key, value);
+    }
+
+    public boolean has(long key, long value) {
+        long now = epoch();
+        for (int age = 0; age < LIVE_SLOTS; ++age) {
+            Slot slot = wheel.get(position(now - age));
+            if (slot != null && slot.epoch == now - age && slot.has(key, value)) {
+                return true;
             }
-        } finally {
-            // set the lastRefreshDate and signal that cache has finished
-            // refreshing to other threads.
-            lastRefreshDate = (new Date()).getTime();
-            cacheCurrentlyRefreshing = false;
         }
+        return false;
     }
 
+    // number of puts in the slots that did not expire yet, a pair put in several slots counts more than once
     public int itemcnt() {
-        return map.size();
+        long now = epoch();
+        int items = 0;
+        for (int age = 0; age < LIVE_SLOTS; ++age) {
+            Slot slot = wheel.get(position(now - age));
+            if (slot != null && slot.epoch == now - age) {
+                items += slot.count.get();
+            }
+        }
+        return items;
+    }
+
+    private Slot currentSlot(long now) {
+        int position = position(now);
+        while (true) {
+            Slot slot = wheel.get(position);
+            if (slot != null && slot.epoch == now) {
+                return slot;
+            }
+            if (slot != null && slot.epoch > now) {
+                // the clock of another thread is already ahead, that slot is just as good
+                return slot;
+            }
+            Slot fresh = new Slot(now, slotCapacity);
+            if (wheel.compareAndSet(position, slot, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    private static long epoch() {
+        return System.currentTimeMillis() / 1000 / SLOT_SECONDS;
+    }
+
+    private static int position(long epoch) {
+        return (int) Math.floorMod(epoch, (long) (LIVE_SLOTS + 1));
+    }
+
+    private static int index(long key, long value, int capacity) {
+        long h = key * 0x9E3779B97F4A7C15L + value;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        return (int) h & (capacity - 1);
     }
 }
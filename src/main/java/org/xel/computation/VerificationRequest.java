@@ -0,0 +1,42 @@
+package org.xel.computation;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+// Everything the verifier needs for one verify-only run, independent of how the run is carried out
+final class VerificationRequest {
+
+    final byte[] target;
+    final byte[] publicKey;
+    final long blockId;
+    final byte[] multiplicator;
+    final long workId;
+    final ProgramCache.Program program;
+    final byte[] storage; // big-endian ints, as submitted with the bounties
+    final boolean nocache;
+
+    VerificationRequest(byte[] target, byte[] publicKey, long blockId, byte[] multiplicator, long workId, ProgramCache.Program program,
+                        byte[] storage, boolean nocache) {
+        this.target = target;
+        this.publicKey = publicKey;
+        this.blockId = blockId;
+        this.multiplicator = multiplicator;
+        this.workId = workId;
+        this.program = program;
+        this.storage = storage;
+        this.nocache = nocache;
+    }
+}
@@ -0,0 +1,128 @@
+package org.xel.computation;
+
+import org.xel.Nxt;
+import org.xel.crypto.Crypto;
+import org.xel.util.Convert;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+// Bounded cache of code execution outcomes, keyed by everything that goes into one execution (submission, target,
+// program and storage). Whoever verifies a submission first, prevalidation of the unconfirmed pool or the block
+// apply on any fork, the others get the same result without running the EPL code again. Only completed executions
+// are cached. A failed one can be the machine rather than the code (deadswitch under load, crash, killed miner), so
+// it is run again the next time instead of being replayed.
+public final class VerificationResultCache {
+
+    private static final class Entry {
+        private final boolean isPow;
+        private final boolean isBty;
+        private final byte[] powHash;
+        private final Integer storage_size;
+
+        private Entry(ComputationResult r) {
+            this.isPow = r.isPow;
+            this.isBty = r.isBty;
+            this.powHash = r.powHash.clone();
+            this.storage_size = r.storage_size;
+        }
+
+        private ComputationResult toResult() {
+            ComputationResult r = new ComputationResult();
+            r.isPow = isPow;
+            r.isBty = isBty;
+            r.powHash = powHash.clone();
+            r.storage_size = storage_size;
+            return r;
+        }
+    }
+
+    private static final int capacity = Math.max(1, Nxt.getIntProperty("nxt.verificationResultCacheSize", 8192));
+
+    private static final Map<String, Entry> results = new LinkedHashMap<String, Entry>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private VerificationResultCache() {}
+
+    static ComputationResult verify(VerificationRequest request) throws Exception {
+        if (request.nocache) {
+            return ExecutionEngine.computeBySpawning(request);
+        }
+        String key = key(request);
+        Entry entry;
+        synchronized (results) {
+            entry = results.get(key);
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.toResult();
+        }
+        misses.incrementAndGet();
+
+        ComputationResult r = ExecutionEngine.computeBySpawning(request);
+        entry = new Entry(r);
+        synchronized (results) {
+            results.put(key, entry);
+        }
+        return r;
+    }
+
+    private static String key(VerificationRequest request) {
+        MessageDigest digest = Crypto.sha256();
+        ByteBuffer header = ByteBuffer.allocate(32);
+        header.putLong(request.workId).putLong(request.blockId)
+                .putInt(request.target.length).putInt(request.publicKey.length).putInt(request.multiplicator.length).putInt(request.storage.length);
+        digest.update(header.array());
+        digest.update(request.program.getHash().getBytes(StandardCharsets.UTF_8));
+        digest.update(request.target);
+        digest.update(request.publicKey);
+        digest.update(request.multiplicator);
+        digest.update(request.storage);
+        return Convert.toHexString(digest.digest());
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static int getSize() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    public static int getCapacity() {
+        return capacity;
+    }
+}
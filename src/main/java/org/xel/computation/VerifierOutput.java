@@ -0,0 +1,112 @@
+package org.xel.computation;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Single pass parser for the text output of a "xel_miner --verify-only" run. Lines are looked at once as they are
+ read, only the last TAIL_LINES of them are kept for error reports, so the cost per verification does not depend
+ on how chatty the miner is.
+ */
+final class VerifierOutput {
+
+    private static final int TAIL_LINES = 32;
+    private static final String DEBUG = "DEBUG: ";
+
+    private final ComputationResult result = new ComputationResult();
+    private final ArrayDeque<String> tail = new ArrayDeque<>(TAIL_LINES);
+    private String error = null;
+
+    static VerifierOutput read(BufferedReader reader) throws IOException {
+        VerifierOutput output = new VerifierOutput();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            output.line(line);
+        }
+        return output;
+    }
+
+    void line(String raw) {
+        String line = stripColors(raw);
+        if (tail.size() == TAIL_LINES) {
+            tail.removeFirst();
+        }
+        tail.addLast(line);
+
+        if (error == null && (line.contains("ERROR") || line.contains("Error"))) {
+            error = line;
+            return;
+        }
+        int debug = line.indexOf(DEBUG);
+        if (debug < 0) {
+            return;
+        }
+        int key = debug + DEBUG.length();
+        if (line.startsWith("POW Found:", key)) {
+            result.isPow = Boolean.parseBoolean(value(line));
+        } else if (line.startsWith("Bounty Found:", key)) {
+            result.isBty = Boolean.parseBoolean(value(line));
+        } else if (line.startsWith("storage size:", key)) {
+            result.storage_size = Integer.parseInt(value(line));
+        } else if (line.startsWith("POW Hash:", key)) {
+            int start = line.lastIndexOf(':') + 2;
+            result.powHash = ExecutionEngine.hexStringToByteArray(line.substring(start, start + 32));
+        }
+    }
+
+    // the result, or the first error line the verifier reported
+    ComputationResult getResult() throws IOException {
+        if (error != null) {
+            throw new IOException("EPL code produced error: " + error);
+        }
+        return result;
+    }
+
+    String getTail() {
+        return String.join("\n", tail);
+    }
+
+    private static String value(String line) {
+        return line.substring(line.lastIndexOf(':') + 2);
+    }
+
+    // drops terminal color codes like "\u001b[32m", same as the "\\[\\d+m" pattern used to
+    private static String stripColors(String line) {
+        if (line.indexOf('[') < 0) {
+            return line.trim();
+        }
+        StringBuilder sb = new StringBuilder(line.length());
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (c == '[') {
+                int j = i + 1;
+                while (j < line.length() && Character.isDigit(line.charAt(j))) j++;
+                if (j > i + 1 && j < line.length() && line.charAt(j) == 'm') {
+                    i = j + 1;
+                    continue;
+                }
+            }
+            sb.append(c);
+            i++;
+        }
+        return sb.toString().trim();
+    }
+}
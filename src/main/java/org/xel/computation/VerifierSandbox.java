@@ -0,0 +1,121 @@
+package org.xel.computation;
+
+import org.xel.util.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.stream.Stream;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Scratch directory for one spawned xel_miner at a time. Each sandbox links the miner and its support files from work/
+ but has its own code.epl and its own work/ directory for the compiled program, so up to
+ BlockVerification.getParallelism() spawned verifications can run side by side.
+ */
+final class VerifierSandbox {
+
+    private static final Path WORK_DIR = Paths.get("work");
+    private static final Path SANDBOX_ROOT = WORK_DIR.resolve("sandbox");
+
+    private static final BlockingQueue<VerifierSandbox> idle = new ArrayBlockingQueue<>(BlockVerification.getParallelism());
+    private static int created = 0;
+
+    private final File directory;
+    private String writtenProgramHash = null;
+
+    private VerifierSandbox(Path directory) {
+        this.directory = directory.toFile();
+    }
+
+    static VerifierSandbox acquire() throws IOException, InterruptedException {
+        VerifierSandbox sandbox = idle.poll();
+        if (sandbox != null) {
+            return sandbox;
+        }
+        synchronized (VerifierSandbox.class) {
+            if (created < BlockVerification.getParallelism()) {
+                sandbox = create(created);
+                created++;
+                return sandbox;
+            }
+        }
+        return idle.take();
+    }
+
+    static void release(VerifierSandbox sandbox) {
+        idle.offer(sandbox);
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    void writeProgram(ProgramCache.Program program) throws IOException {
+        // only rewrite the program if it changed since the last run in this sandbox
+        if (program.getHash().equals(writtenProgramHash)) {
+            return;
+        }
+        writtenProgramHash = null;
+        try (PrintWriter printWriter = new PrintWriter(new File(directory, "code.epl"), "UTF-8")) {
+            printWriter.print(program.getSource());
+        }
+        writtenProgramHash = program.getHash();
+    }
+
+    private static VerifierSandbox create(int index) throws IOException {
+        Path directory = SANDBOX_ROOT.resolve(String.valueOf(index));
+        Files.createDirectories(directory.resolve("work"));
+        try (Stream<Path> entries = Files.list(WORK_DIR)) {
+            for (Path entry : (Iterable<Path>) entries::iterator) {
+                String name = entry.getFileName().toString();
+                if (name.equals("work") || name.equals("sandbox") || name.equals("code.epl")) {
+                    continue;
+                }
+                Path link = directory.resolve(name);
+                if (Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+                    continue;
+                }
+                try {
+                    Files.createSymbolicLink(link, entry.toAbsolutePath().normalize());
+                } catch (UnsupportedOperationException | IOException e) {
+                    // no symbolic links on this platform, fall back to a copy
+                    copy(entry, link);
+                }
+            }
+        }
+        Logger.logDebugMessage("Created verifier sandbox " + directory);
+        return new VerifierSandbox(directory);
+    }
+
+    private static void copy(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path destination = target.resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(destination);
+                } else {
+                    Files.copy(path, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+        }
+    }
+}
@@ -49,6 +49,7 @@ public abstract class ComputationVersionedEntityDbTable<T> extends Computational
             throw new IllegalStateException("Not in transaction");
         }
         DbKey dbKey = dbKeyFactory.newKey(t);
+        changed(dbKey);
         try (Connection con = db.getConnection();
              PreparedStatement pstmtCount = con.prepareStatement("SELECT 1 FROM " + table
                      + dbKeyFactory.getPKClause() + " AND height < ? LIMIT 1")) {
@@ -56,8 +57,7 @@ public abstract class ComputationVersionedEntityDbTable<T> extends Computational
             pstmtCount.setInt(i, Nxt.getTemporaryComputationBlockchain().getHeight());
             try (ResultSet rs = pstmtCount.executeQuery()) {
                 if (rs.next()) {
-                    try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
-                            + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
+                    try (PreparedStatement pstmt = con.prepareStatement(latestSql)) {
                         dbKey.setPK(pstmt);
                         pstmt.executeUpdate();
                         save(con, t);
@@ -25,7 +25,7 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 
-public abstract class ComputationalDerivedDbTable{
+public abstract class ComputationalDerivedDbTable implements TrimmableTable {
 
     protected static final TransactionalDb db = Db.db;
 
@@ -66,6 +66,17 @@ public abstract class ComputationalDerivedDbTable{
         //nothing to trim
     }
 
+    @Override
+    public long getTrimEnd() {
+        return 1;
+    }
+
+    @Override
+    public long trim(int height, long from, long end, int limit) {
+        trim(height);
+        return end;
+    }
+
     public void createSearchIndex(Connection con) throws SQLException {
         //implemented in EntityDbTable only
     }
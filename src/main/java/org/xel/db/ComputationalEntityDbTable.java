@@ -31,6 +31,12 @@ public abstract class ComputationalEntityDbTable<T> extends ComputationalDerived
     protected final DbKey.Factory<T> dbKeyFactory;
     private final String defaultSort;
     private final String fullTextSearchColumns;
+    // statements that only depend on the table, built once
+    final String latestSql;
+    private final String getSql;
+    private final String countSql;
+    private final String rowCountSql;
+    private final ReadCache readCache;
 
     protected ComputationalEntityDbTable(String table, DbKey.Factory<T> dbKeyFactory) {
         this(table, dbKeyFactory, false, null);
@@ -46,6 +52,11 @@ public abstract class ComputationalEntityDbTable<T> extends ComputationalDerived
         this.multiversion = multiversion;
         this.defaultSort = " ORDER BY " + (multiversion ? dbKeyFactory.getPKColumns() : " height DESC, db_id DESC ");
         this.fullTextSearchColumns = fullTextSearchColumns;
+        this.latestSql = "UPDATE " + table + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1";
+        this.getSql = "SELECT * FROM " + table + dbKeyFactory.getPKClause() + (multiversion ? " AND latest = TRUE LIMIT 1" : "");
+        this.countSql = "SELECT COUNT(*) FROM " + table + (multiversion ? " WHERE latest = TRUE" : "");
+        this.rowCountSql = "SELECT COUNT(*) FROM " + table;
+        this.readCache = ReadCache.forTable(table);
     }
 
     protected abstract T load(Connection con, ResultSet rs, DbKey dbKey) throws SQLException;
@@ -60,6 +71,20 @@ public abstract class ComputationalEntityDbTable<T> extends ComputationalDerived
         db.clearCache(table);
     }
 
+    // the entity of dbKey is written in the current transaction
+    final void changed(DbKey dbKey) {
+        if (readCache != null) {
+            readCache.changed(db, dbKey);
+        }
+    }
+
+    // the table is rolled back or truncated in the current transaction
+    final void rolledBack() {
+        if (readCache != null) {
+            readCache.rolledBack(db);
+        }
+    }
+
     public void checkAvailable(int height) {
         if (multiversion) {
             int minRollBackHeight = isPersistent() && Nxt.getTemporaryComputationBlockchainProcessor().isScanning() ?
@@ -99,10 +124,11 @@ public abstract class ComputationalEntityDbTable<T> extends ComputationalDerived
             if (t != null) {
                 return t;
             }
+        } else if (cache && readCache != null) {
+            return getShared(dbKey);
         }
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM " + table + dbKeyFactory.getPKClause()
-             + (multiversion ? " AND latest = TRUE LIMIT 1" : ""))) {
+             PreparedStatement pstmt = con.prepareStatement(getSql)) {
             dbKey.setPK(pstmt);
             return get(con, pstmt, cache);
         } catch (SQLException e) {
@@ -110,6 +136,35 @@ public abstract class ComputationalEntityDbTable<T> extends ComputationalDerived
         }
     }
 
+    // outside a transaction, through the read cache
+    private T getShared(DbKey dbKey) {
+        int height = Nxt.getTemporaryComputationBlockchain().getHeight();
+        try (Connection con = db.getConnection()) {
+            try (ResultSet rs = readCache.get(dbKey, height)) {
+                if (rs != null) {
+                    return load(con, rs, dbKey);
+                }
+            }
+            long generation = readCache.getGeneration();
+            try (PreparedStatement pstmt = con.prepareStatement(getSql)) {
+                dbKey.setPK(pstmt);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        return null;
+                    }
+                    T t = load(con, rs, dbKey);
+                    readCache.put(dbKey, rs, height, generation);
+                    if (rs.next()) {
+                        throw new RuntimeException("Multiple records found");
+                    }
+                    return t;
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
     public final T get(DbKey dbKey, int height) {
         if (height < 0 || doesNotExceed(height)) {
             return get(dbKey);
@@ -341,8 +396,7 @@ public abstract class ComputationalEntityDbTable<T> extends ComputationalDerived
 
     public final int getCount() {
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table
-                     + (multiversion ? " WHERE latest = TRUE" : ""))) {
+             PreparedStatement pstmt = con.prepareStatement(countSql)) {
             return getCount(pstmt);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -390,7 +444,7 @@ public abstract class ComputationalEntityDbTable<T> extends ComputationalDerived
 
     public final int getRowCount() {
         try (Connection con = db.getConnection();
-             PreparedStatement pstmt = con.prepareStatement("SELECT COUNT(*) FROM " + table)) {
+             PreparedStatement pstmt = con.prepareStatement(rowCountSql)) {
             return getCount(pstmt);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -420,15 +474,15 @@ public abstract class ComputationalEntityDbTable<T> extends ComputationalDerived
             throw new IllegalStateException("Different instance found in Db cache, perhaps trying to save an object "
                     + "that was read outside the current transaction");
         }
-        try (Connection con = db.getConnection()) {
+        changed(dbKey);
+        try {
             if (multiversion) {
-                try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
-                        + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
-                    dbKey.setPK(pstmt);
-                    pstmt.executeUpdate();
+                db.saveVersioned(table, dbKey, Nxt.getTemporaryComputationBlockchain().getHeight(), latestSql, con -> save(con, t));
+            } else {
+                try (Connection con = db.getConnection()) {
+                    save(con, t);
                 }
             }
-            save(con, t);
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
         }
@@ -436,6 +490,7 @@ public abstract class ComputationalEntityDbTable<T> extends ComputationalDerived
 
     @Override
     public void rollback(int height) {
+        rolledBack();
         if (multiversion) {
             VersionedEntityDbTable.rollback(db, table, height, dbKeyFactory);
         } else {
@@ -443,6 +498,12 @@ public abstract class ComputationalEntityDbTable<T> extends ComputationalDerived
         }
     }
 
+    @Override
+    public void truncate() {
+        rolledBack();
+        super.truncate();
+    }
+
     @Override
     public void trim(int height) {
         if (multiversion) {
@@ -452,6 +513,21 @@ public abstract class ComputationalEntityDbTable<T> extends ComputationalDerived
         }
     }
 
+    @Override
+    public long getTrimEnd() {
+        return multiversion ? VersionedEntityDbTable.getMaxDbId(db, table) : super.getTrimEnd();
+    }
+
+    @Override
+    public long trim(int height, long from, long end, int limit) {
+        if (multiversion) {
+            long to = Math.min(from + limit, end);
+            VersionedEntityDbTable.trim(db, table, height, dbKeyFactory, from, to);
+            return to;
+        }
+        return super.trim(height, from, end, limit);
+    }
+
     @Override
     public final void createSearchIndex(Connection con) throws SQLException {
         if (fullTextSearchColumns != null) {
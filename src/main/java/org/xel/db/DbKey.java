@@ -163,6 +163,11 @@ public interface DbKey {
             return (int)(id ^ (id >>> 32));
         }
 
+        @Override
+        public String toString() {
+            return Long.toUnsignedString(id);
+        }
+
     }
 
     final class StringKey implements DbKey {
@@ -198,6 +203,11 @@ public interface DbKey {
             return id != null ? id.hashCode() : 0;
         }
 
+        @Override
+        public String toString() {
+            return id;
+        }
+
     }
 
     final class LinkKey implements DbKey {
@@ -236,6 +246,11 @@ public interface DbKey {
             return (int)(idA ^ (idA >>> 32)) ^ (int)(idB ^ (idB >>> 32));
         }
 
+        @Override
+        public String toString() {
+            return Long.toUnsignedString(idA) + ":" + Long.toUnsignedString(idB);
+        }
+
     }
 
 }
@@ -25,7 +25,7 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 
-public abstract class DerivedDbTable {
+public abstract class DerivedDbTable implements TrimmableTable {
 
     protected static final TransactionalDb db = Db.db;
 
@@ -68,6 +68,17 @@ public abstract class DerivedDbTable {
         //nothing to trim
     }
 
+    @Override
+    public long getTrimEnd() {
+        return 1;
+    }
+
+    @Override
+    public long trim(int height, long from, long end, int limit) {
+        trim(height);
+        return end;
+    }
+
     public void createSearchIndex(Connection con) throws SQLException {
         //implemented in EntityDbTable only
     }
@@ -44,6 +44,15 @@ public abstract class PrunableDbTable<T> extends PersistentDbTable<T> {
         super.trim(height);
     }
 
+    @Override
+    public final long trim(int height, long from, long end, int limit) {
+        // a table that is not versioned is trimmed in one slice through trim(height), which prunes
+        if (from == 0 && isMultiversion()) {
+            prune();
+        }
+        return super.trim(height, from, end, limit);
+    }
+
     protected void prune() {
         if (Constants.ENABLE_PRUNING) {
             try (Connection con = db.getConnection();
@@ -0,0 +1,298 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package org.xel.db;
+
+import org.h2.tools.SimpleResultSet;
+import org.xel.Nxt;
+
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latest rows of one table, shared by all reads outside a database transaction
+ *
+ * The size of the cache of a table is set by nxt.readCacheSize.&lt;table&gt;, tables without a size are not cached.
+ * The cache holds the column values of a row, not the entity: every hit is loaded into a new entity, so callers
+ * can not see each other's changes. A row is kept with the height it was read at and is only served at that
+ * height or above, until a transaction that changed its key commits. Rolling the table back drops all rows.
+ * A row read from the database is only kept if no such transaction ended while it was read, it could be the
+ * version before the commit. Reads within a transaction never use the cache, they have to see the changes of
+ * the transaction.
+ *
+ * All changes to a cached table must go through the table (insert, delete, rollback, truncate).
+ */
+public final class ReadCache {
+
+    private static final List<ReadCache> caches = new CopyOnWriteArrayList<>();
+
+    private static final class Row {
+
+        private final int height;
+        private final Object[] values;
+
+        private Row(int height, Object[] values) {
+            this.height = height;
+            this.values = values;
+        }
+    }
+
+    private static final class Column {
+
+        private final String label;
+        private final int type;
+        private final int precision;
+        private final int scale;
+
+        private Column(String label, int type, int precision, int scale) {
+            this.label = label;
+            this.type = type;
+            this.precision = precision;
+            this.scale = scale;
+        }
+    }
+
+    private final String table;
+    private final int capacity;
+    private final Map<DbKey, Row> rows;
+    private volatile Column[] columns;
+    private long generation = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // keys changed by the current transaction, null after a rollback of the table
+    private final ThreadLocal<Set<DbKey>> changedKeys = new ThreadLocal<>();
+    private final ThreadLocal<Boolean> inTransaction = ThreadLocal.withInitial(() -> false);
+
+    private final TransactionalDb.TransactionCallback callback = new TransactionalDb.TransactionCallback() {
+        @Override
+        public void commit() {
+            Set<DbKey> keys = changedKeys.get();
+            end();
+            invalidate(keys);
+        }
+
+        @Override
+        public void rollback() {
+            end();
+        }
+    };
+
+    // null if the table is not cached
+    static ReadCache forTable(String table) {
+        int capacity = table == null ? 0 : Nxt.getIntProperty("nxt.readCacheSize." + table);
+        if (capacity <= 0) {
+            return null;
+        }
+        ReadCache cache = new ReadCache(table, capacity);
+        caches.add(cache);
+        return cache;
+    }
+
+    public static List<ReadCache> getAll() {
+        return Collections.unmodifiableList(caches);
+    }
+
+    private ReadCache(String table, int capacity) {
+        this.table = table;
+        this.capacity = capacity;
+        this.rows = new LinkedHashMap<DbKey, Row>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<DbKey, Row> eldest) {
+                if (size() > ReadCache.this.capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * A result set positioned on a copy of the cached row, null if the key is not cached at this height
+     */
+    ResultSet get(DbKey dbKey, int height) throws SQLException {
+        Row row;
+        synchronized (this) {
+            row = rows.get(dbKey);
+            if (row != null && row.height > height) {
+                row = null;
+            }
+        }
+        if (row == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        SimpleResultSet rs = new SimpleResultSet();
+        for (Column column : columns) {
+            rs.addColumn(column.label, column.type, column.precision, column.scale);
+        }
+        Object[] values = new Object[row.values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = copy(row.values[i]);
+        }
+        rs.addRow(values);
+        rs.next();
+        return rs;
+    }
+
+    // to be taken before the database read, and handed to put with what was read
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Keep the current row of rs, read at the given height
+     */
+    void put(DbKey dbKey, ResultSet rs, int height, long readGeneration) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int count = metaData.getColumnCount();
+        if (columns == null) {
+            Column[] columns = new Column[count];
+            for (int i = 0; i < count; i++) {
+                int type = metaData.getColumnType(i + 1);
+                if (type == Types.CLOB) {
+                    type = Types.VARCHAR;
+                } else if (type == Types.BLOB) {
+                    type = Types.VARBINARY;
+                }
+                columns[i] = new Column(metaData.getColumnLabel(i + 1), type,
+                        metaData.getPrecision(i + 1), metaData.getScale(i + 1));
+            }
+            this.columns = columns;
+        }
+        Object[] values = new Object[count];
+        for (int i = 0; i < count; i++) {
+            Object value = rs.getObject(i + 1);
+            if (value instanceof Clob) {
+                value = rs.getString(i + 1);
+            } else if (value instanceof Blob) {
+                value = rs.getBytes(i + 1);
+            } else {
+                value = copy(value);
+            }
+            values[i] = value;
+        }
+        synchronized (this) {
+            if (readGeneration == generation) {
+                rows.put(dbKey, new Row(height, values));
+            }
+        }
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).clone();
+        }
+        if (value instanceof Object[]) {
+            return ((Object[]) value).clone();
+        }
+        if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).clone();
+        }
+        return value;
+    }
+
+    /**
+     * The row of the key is written in the current transaction, it is dropped when the transaction commits
+     */
+    void changed(TransactionalDb db, DbKey dbKey) {
+        begin(db);
+        Set<DbKey> keys = changedKeys.get();
+        if (keys != null) {
+            keys.add(dbKey);
+        }
+    }
+
+    /**
+     * The table is rolled back or truncated in the current transaction, all rows are dropped when it commits
+     */
+    void rolledBack(TransactionalDb db) {
+        begin(db);
+        changedKeys.set(null);
+    }
+
+    private void begin(TransactionalDb db) {
+        if (!inTransaction.get()) {
+            inTransaction.set(true);
+            changedKeys.set(new HashSet<>());
+            db.registerCallback(callback);
+        }
+    }
+
+    private void end() {
+        inTransaction.set(false);
+        changedKeys.remove();
+    }
+
+    // keys null to drop all rows
+    private synchronized void invalidate(Set<DbKey> keys) {
+        generation++;
+        if (keys == null) {
+            rows.clear();
+            invalidations.incrementAndGet();
+        } else {
+            for (DbKey dbKey : keys) {
+                if (rows.remove(dbKey) != null) {
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int getSize() {
+        return rows.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package org.xel.db;
+
+import org.xel.Nxt;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepared statements of one connection, kept by SQL text
+ *
+ * Closing a statement handed out by the cache returns it, it is closed for real when it drops out of the cache or
+ * the cache is closed. A statement is handed out to one user at a time, a second prepare of the same SQL while the
+ * first is still open gets a plain statement. Statements whose fetch size or row limits were changed are not
+ * taken back.
+ */
+public final class StatementCache {
+
+    interface Preparer {
+        PreparedStatement prepare(String sql) throws SQLException;
+    }
+
+    private static final int capacity = Math.max(0, Nxt.getIntProperty("nxt.dbStatementCacheSize", 256));
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private final Preparer preparer;
+    private final Map<String, CachedStatement> statements;
+
+    StatementCache(Preparer preparer) {
+        this.preparer = preparer;
+        this.statements = new LinkedHashMap<String, CachedStatement>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() > capacity) {
+                    evictions.incrementAndGet();
+                    eldest.getValue().evict();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    PreparedStatement prepare(String sql) throws SQLException {
+        CachedStatement cached = statements.get(sql);
+        if (cached != null && !cached.inUse) {
+            hits.incrementAndGet();
+            cached.inUse = true;
+            return cached;
+        }
+        misses.incrementAndGet();
+        PreparedStatement pstmt = preparer.prepare(sql);
+        if (cached != null) {
+            return pstmt;
+        }
+        cached = new CachedStatement(pstmt, sql);
+        cached.inUse = true;
+        statements.put(sql, cached);
+        return cached;
+    }
+
+    void close() {
+        statements.values().forEach(CachedStatement::evict);
+        statements.clear();
+    }
+
+    // statements kept per connection, 0 if the cache is disabled
+    public static int getCapacity() {
+        return capacity;
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static long getEvictions() {
+        return evictions.get();
+    }
+
+    private final class CachedStatement extends FilteredPreparedStatement {
+
+        private boolean inUse;
+        private boolean evicted;
+
+        private CachedStatement(PreparedStatement stmt, String sql) {
+            super(stmt, sql);
+        }
+
+        // closes now if nobody has it, else when it is given back
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                DbUtils.close(this::closeStatement);
+            }
+        }
+
+        private void closeStatement() throws SQLException {
+            super.close();
+        }
+
+        private void keepOut() {
+            if (statements.get(getSQL()) == this) {
+                statements.remove(getSQL());
+            }
+            evicted = true;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (!inUse) {
+                return;
+            }
+            inUse = false;
+            if (evicted) {
+                closeStatement();
+                return;
+            }
+            ResultSet rs = getResultSet();
+            if (rs != null) {
+                rs.close();
+            }
+            clearParameters();
+            clearBatch();
+        }
+
+        @Override
+        public boolean isClosed() throws SQLException {
+            return !inUse || super.isClosed();
+        }
+
+        @Override
+        public void setFetchSize(int rows) throws SQLException {
+            keepOut();
+            super.setFetchSize(rows);
+        }
+
+        @Override
+        public void setMaxRows(int max) throws SQLException {
+            keepOut();
+            super.setMaxRows(max);
+        }
+
+        @Override
+        public void setLargeMaxRows(long max) throws SQLException {
+            keepOut();
+            super.setLargeMaxRows(max);
+        }
+
+        @Override
+        public void setQueryTimeout(int seconds) throws SQLException {
+            keepOut();
+            super.setQueryTimeout(seconds);
+        }
+    }
+}
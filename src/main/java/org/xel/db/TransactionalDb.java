@@ -35,16 +35,19 @@ public class TransactionalDb extends BasicDb {
     private static final long stmtThreshold;
     private static final long txThreshold;
     private static final long txInterval;
+    private static final int defaultWriteBehindSize;
     static {
         long temp;
         stmtThreshold = (temp=Nxt.getIntProperty("nxt.statementLogThreshold")) != 0 ? temp : 1000;
         txThreshold = (temp=Nxt.getIntProperty("nxt.transactionLogThreshold")) != 0 ? temp : 5000;
         txInterval = (temp=Nxt.getIntProperty("nxt.transactionLogInterval")) != 0 ? temp*60*1000 : 15*60*1000;
+        defaultWriteBehindSize = Math.max(0, Nxt.getIntProperty("nxt.dbWriteBehindSize", 1000));
     }
 
     private final ThreadLocal<DbConnection> localConnection = new ThreadLocal<>();
     private final ThreadLocal<Map<String,Map<DbKey,Object>>> transactionCaches = new ThreadLocal<>();
     private final ThreadLocal<Set<TransactionCallback>> transactionCallback = new ThreadLocal<>();
+    private volatile int writeBehindSize = defaultWriteBehindSize;
     private volatile long txTimes = 0;
     private volatile long txCount = 0;
     private volatile long statsTime = 0;
@@ -75,6 +78,12 @@ public class TransactionalDb extends BasicDb {
             con.setAutoCommit(false);
             con = new DbConnection(con);
             ((DbConnection)con).txStart = System.currentTimeMillis();
+            if (StatementCache.getCapacity() > 0) {
+                ((DbConnection)con).enableStatementCache();
+            }
+            if (writeBehindSize > 0) {
+                ((DbConnection)con).writeBehind = new WriteBehind(con, writeBehindSize);
+            }
             localConnection.set((DbConnection)con);
             transactionCaches.set(new HashMap<>());
             return con;
@@ -89,6 +98,9 @@ public class TransactionalDb extends BasicDb {
             throw new IllegalStateException("Not in transaction");
         }
         try {
+            if (con.writeBehind != null) {
+                con.writeBehind.flush();
+            }
             con.doCommit();
             Set<TransactionCallback> callbacks = transactionCallback.get();
             if (callbacks != null) {
@@ -106,6 +118,9 @@ public class TransactionalDb extends BasicDb {
             throw new IllegalStateException("Not in transaction");
         }
         try {
+            if (con.writeBehind != null) {
+                con.writeBehind.discard();
+            }
             con.doRollback();
         } catch (SQLException e) {
             throw new RuntimeException(e.toString(), e);
@@ -126,6 +141,8 @@ public class TransactionalDb extends BasicDb {
         }
         localConnection.set(null);
         transactionCaches.set(null);
+        ((DbConnection)con).writeBehind = null;
+        ((DbConnection)con).closeStatementCache();
         long now = System.currentTimeMillis();
         long elapsed = now - ((DbConnection)con).txStart;
         if (elapsed >= txThreshold) {
@@ -151,6 +168,39 @@ public class TransactionalDb extends BasicDb {
         DbUtils.close(con);
     }
 
+    /**
+     * Save an entity of a versioned table, after clearing the latest flag of its previous version
+     *
+     * Within a transaction the save may be held back (see WriteBehind) until the transaction connection
+     * prepares a statement on the same table, or the commit.
+     *
+     * @param   table               Table name
+     * @param   dbKey               Key of the entity
+     * @param   height              Blockchain height the save writes
+     * @param   latestSql           UPDATE statement clearing the latest flag, with the key as parameters
+     * @param   save                The save of the entity
+     * @throws  SQLException        Error executing the save or a save held back before it
+     */
+    void saveVersioned(String table, DbKey dbKey, int height, String latestSql, WriteBehind.Save save) throws SQLException {
+        DbConnection transactionCon = localConnection.get();
+        if (transactionCon != null && transactionCon.writeBehind != null) {
+            transactionCon.writeBehind.save(table, dbKey, height, latestSql, save);
+            return;
+        }
+        try (Connection con = getConnection()) {
+            try (PreparedStatement pstmt = con.prepareStatement(latestSql)) {
+                dbKey.setPK(pstmt);
+                pstmt.executeUpdate();
+            }
+            save.save(con);
+        }
+    }
+
+    // the maximum number of saves held back per transaction, 0 executes every save right away
+    void setWriteBehindSize(int writeBehindSize) {
+        this.writeBehindSize = Math.max(0, writeBehindSize);
+    }
+
     public void registerCallback(TransactionCallback callback) {
         Set<TransactionCallback> callbacks = transactionCallback.get();
         if (callbacks == null) {
@@ -204,11 +254,53 @@ public class TransactionalDb extends BasicDb {
     private final class DbConnection extends FilteredConnection {
 
         long txStart = 0;
+        private StatementCache statementCache;
+        private WriteBehind writeBehind;
 
         private DbConnection(Connection con) {
             super(con, factory);
         }
 
+        // only for the connection of a transaction, a pooled connection does not outlive its close
+        private void enableStatementCache() {
+            statementCache = new StatementCache(super::prepareStatement);
+        }
+
+        private void closeStatementCache() {
+            if (statementCache != null) {
+                statementCache.close();
+                statementCache = null;
+            }
+        }
+
+        @Override
+        public Statement createStatement() throws SQLException {
+            flushWriteBehind(null);
+            return super.createStatement();
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            flushWriteBehind(sql);
+            if (statementCache == null) {
+                return super.prepareStatement(sql);
+            }
+            return statementCache.prepare(sql);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+            flushWriteBehind(sql);
+            return super.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        }
+
+        // a statement on the table of a held back save sees it, whatever it is doing with the table
+        private void flushWriteBehind(String sql) throws SQLException {
+            if (writeBehind != null) {
+                writeBehind.beforeStatement(sql);
+            }
+        }
+
         @Override
         public void setAutoCommit(boolean autoCommit) throws SQLException {
             throw new UnsupportedOperationException("Use Db.beginTransaction() to start a new transaction");
@@ -254,7 +346,7 @@ public class TransactionalDb extends BasicDb {
         }
     }
 
-    private static final class DbStatement extends FilteredStatement {
+    private static class DbStatement extends FilteredStatement {
 
         private DbStatement(Statement stmt) {
             super(stmt);
@@ -294,7 +386,7 @@ public class TransactionalDb extends BasicDb {
         }
     }
 
-    private static final class DbPreparedStatement extends FilteredPreparedStatement {
+    private static class DbPreparedStatement extends FilteredPreparedStatement {
         private DbPreparedStatement(PreparedStatement stmt, String sql) {
             super(stmt, sql);
         }
@@ -333,7 +425,7 @@ public class TransactionalDb extends BasicDb {
         }
     }
 
-    private static final class DbFactory implements FilteredFactory {
+    private static class DbFactory implements FilteredFactory {
 
         @Override
         public Statement createStatement(Statement stmt) {
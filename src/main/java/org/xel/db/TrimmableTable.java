@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package org.xel.db;
+
+/**
+ * Derived table that can be trimmed a slice at a time
+ *
+ * A trim pass starts at position 0 and calls trim until the position returned reaches the end taken at the start of
+ * the pass. Versioned tables use db_id as position, the other tables are trimmed in one slice.
+ */
+public interface TrimmableTable {
+
+    /**
+     * Get the end position of a trim pass
+     *
+     * @return                      End position, 1 for a table that is trimmed in one slice
+     */
+    long getTrimEnd();
+
+    /**
+     * Trim the positions after from, up to from + limit but not beyond end
+     *
+     * Must be called within a database transaction
+     *
+     * @param   height              Trim height
+     * @param   from                Position the slice starts after
+     * @param   end                 End position of the pass
+     * @param   limit               Maximum number of positions in the slice
+     * @return                      Position the next slice starts after
+     */
+    long trim(int height, long from, long end, int limit);
+}
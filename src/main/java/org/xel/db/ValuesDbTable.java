@@ -125,4 +125,19 @@ public abstract class ValuesDbTable<T,V> extends DerivedDbTable {
         }
     }
 
+    @Override
+    public final long getTrimEnd() {
+        return multiversion ? VersionedEntityDbTable.getMaxDbId(db, table) : super.getTrimEnd();
+    }
+
+    @Override
+    public final long trim(int height, long from, long end, int limit) {
+        if (multiversion) {
+            long to = Math.min(from + limit, end);
+            VersionedEntityDbTable.trim(db, table, height, dbKeyFactory, from, to);
+            return to;
+        }
+        return super.trim(height, from, end, limit);
+    }
+
 }
@@ -49,6 +49,7 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
             throw new IllegalStateException("Not in transaction");
         }
         DbKey dbKey = dbKeyFactory.newKey(t);
+        changed(dbKey);
         try (Connection con = db.getConnection();
              PreparedStatement pstmtCount = con.prepareStatement("SELECT 1 FROM " + table
                      + dbKeyFactory.getPKClause() + " AND height < ? LIMIT 1")) {
@@ -56,8 +57,7 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
             pstmtCount.setInt(i, Nxt.getBlockchain().getHeight());
             try (ResultSet rs = pstmtCount.executeQuery()) {
                 if (rs.next()) {
-                    try (PreparedStatement pstmt = con.prepareStatement("UPDATE " + table
-                            + " SET latest = FALSE " + dbKeyFactory.getPKClause() + " AND latest = TRUE LIMIT 1")) {
+                    try (PreparedStatement pstmt = con.prepareStatement(latestSql)) {
                         dbKey.setPK(pstmt);
                         pstmt.executeUpdate();
                         save(con, t);
@@ -156,4 +156,62 @@ public abstract class VersionedEntityDbTable<T> extends EntityDbTable<T> {
         }
     }
 
+    static long getMaxDbId(final TransactionalDb db, final String table) {
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT MAX(db_id) FROM " + table);
+             ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    /**
+     * Trim the keys that have a version below the height that is no longer latest, stored with a db_id after fromDbId
+     * up to toDbId
+     *
+     * All versions of such a key are trimmed, as trim does: the versions below the last one before the height are
+     * deleted, and that one too if the key is deleted and has no version at or above the height.
+     */
+    static void trim(final TransactionalDb db, final String table, final int height, final DbKey.Factory dbKeyFactory,
+                     final long fromDbId, final long toDbId) {
+        if (!db.isInTransaction()) {
+            throw new IllegalStateException("Not in transaction");
+        }
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmtSelect = con.prepareStatement("SELECT DISTINCT " + dbKeyFactory.getPKColumns()
+                     + " FROM " + table + " WHERE db_id > ? AND db_id <= ? AND height < ? AND latest = FALSE");
+             PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table + dbKeyFactory.getPKClause()
+                     + " AND height < (SELECT MAX(height) FROM " + table + dbKeyFactory.getPKClause() + " AND height < ?)"
+                     + " AND height >= 0");
+             PreparedStatement pstmtDeleteDeleted = con.prepareStatement("DELETE FROM " + table + dbKeyFactory.getPKClause()
+                     + " AND height < ? AND height >= 0 AND latest = FALSE AND NOT EXISTS (SELECT 1 FROM " + table
+                     + dbKeyFactory.getPKClause() + " AND height >= ?)")) {
+            pstmtSelect.setLong(1, fromDbId);
+            pstmtSelect.setLong(2, toDbId);
+            pstmtSelect.setInt(3, height);
+            List<DbKey> dbKeys = new ArrayList<>();
+            try (ResultSet rs = pstmtSelect.executeQuery()) {
+                while (rs.next()) {
+                    dbKeys.add(dbKeyFactory.newKey(rs));
+                }
+            }
+            for (DbKey dbKey : dbKeys) {
+                int i = dbKey.setPK(pstmtDelete);
+                i = dbKey.setPK(pstmtDelete, i);
+                pstmtDelete.setInt(i, height);
+                pstmtDelete.executeUpdate();
+            }
+            for (DbKey dbKey : dbKeys) {
+                int i = dbKey.setPK(pstmtDeleteDeleted);
+                pstmtDeleteDeleted.setInt(i, height);
+                i = dbKey.setPK(pstmtDeleteDeleted, ++i);
+                pstmtDeleteDeleted.setInt(i, height);
+                pstmtDeleteDeleted.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
 }
@@ -39,6 +39,7 @@ public abstract class VersionedPrunableDbTable<T> extends PrunableDbTable<T> {
         if (!db.isInTransaction()) {
             throw new IllegalStateException("Not in transaction");
         }
+        rolledBack();
         try (Connection con = db.getConnection();
              PreparedStatement pstmtSetLatest = con.prepareStatement("UPDATE " + table
                      + " AS a SET a.latest = TRUE WHERE a.latest = FALSE AND a.height = "
@@ -0,0 +1,309 @@
+/*
+ * Copyright © 2013-2016 The Nxt Core Developers.
+ * Copyright © 2016-2017 Jelurida IP B.V.
+ *
+ * See the LICENSE.txt file at the top-level directory of this distribution
+ * for licensing information.
+ *
+ * Unless otherwise agreed in a custom licensing agreement with Jelurida B.V.,
+ * no part of the Nxt software, including this file, may be copied, modified,
+ * propagated, or distributed except according to the terms contained in the
+ * LICENSE.txt file.
+ *
+ * Removal or modification of this copyright notice is prohibited.
+ *
+ */
+
+package org.xel.db;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Write-behind buffer for the saves of versioned entities within one database transaction
+ *
+ * The save of an entity runs at insert time as before, but against a connection that only records the statements
+ * and their parameters, so everything the save reads (the height in particular) is read when it always was.
+ * A save that is a single MERGE is kept back and executed in JDBC batches, one per table and statement, before the
+ * transaction connection prepares a statement that names the table of a pending save, and at commit. A later save
+ * of the same entity at the same height replaces the pending one, both would merge into the same row. Any other
+ * save runs right away, after whatever is pending, and so does a save of an entity that is pending at another
+ * height or a save that does more than the recording connection supports.
+ *
+ * A pending save that fails is reported by the flush, with its table, key and height, so the error shows up at
+ * the next statement on the same table or at the commit and names the entity it belongs to.
+ */
+final class WriteBehind {
+
+    interface Save {
+        void save(Connection con) throws SQLException;
+    }
+
+    private interface Bind {
+        void bind(PreparedStatement pstmt) throws SQLException;
+    }
+
+    // the save used more than prepared statements, setters and executeUpdate, it has to run against the connection
+    private static final class NotRecordable extends RuntimeException {
+        private static final NotRecordable INSTANCE = new NotRecordable();
+
+        private NotRecordable() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final class Row {
+        private final String sql;
+        private final List<Bind> binds = new ArrayList<>();
+
+        private Row(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    private static final class Entry {
+        private final String table;
+        private final DbKey dbKey;
+        private final int height;
+        private final String latestSql;
+        private final Row row;
+
+        private Entry(String table, DbKey dbKey, int height, String latestSql, Row row) {
+            this.table = table;
+            this.dbKey = dbKey;
+            this.height = height;
+            this.latestSql = latestSql;
+            this.row = row;
+        }
+
+        @Override
+        public String toString() {
+            return table + " " + dbKey + " at height " + height;
+        }
+    }
+
+    private final Connection con;
+    private final int maxSize;
+    private final Map<String, Pattern> tableNames = new HashMap<>();
+    private Map<String, Map<DbKey, Entry>> pending = new LinkedHashMap<>();
+    private int size = 0;
+    private boolean flushing = false;
+
+    WriteBehind(Connection con, int maxSize) {
+        this.con = con;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Save an entity of a versioned table
+     *
+     * @param   table               Table name
+     * @param   dbKey               Key of the entity
+     * @param   height              Height the save writes, a pending save at another height is not replaced
+     * @param   latestSql           UPDATE statement clearing the latest flag of the entity, with the key as parameters
+     * @param   save                The save of the entity
+     * @throws  SQLException        Error executing the save or the pending saves
+     */
+    void save(String table, DbKey dbKey, int height, String latestSql, Save save) throws SQLException {
+        List<Row> rows = record(save);
+        Entry entry = rows != null && rows.size() == 1 && isMerge(rows.get(0).sql) ? new Entry(table, dbKey, height, latestSql, rows.get(0)) : null;
+        Map<DbKey, Entry> entries = pending.get(table);
+        Entry previous = entries != null ? entries.get(dbKey) : null;
+        if (entry == null || (previous != null && previous.height != height)) {
+            flush();
+        }
+        if (entry == null) {
+            try (PreparedStatement pstmt = con.prepareStatement(latestSql)) {
+                dbKey.setPK(pstmt);
+                pstmt.executeUpdate();
+            }
+            if (rows == null) {
+                save.save(con);
+                return;
+            }
+            for (Row row : rows) {
+                try (PreparedStatement pstmt = con.prepareStatement(row.sql)) {
+                    bind(pstmt, row);
+                    pstmt.executeUpdate();
+                }
+            }
+            return;
+        }
+        entries = pending.computeIfAbsent(table, t -> new LinkedHashMap<>());
+        if (entries.put(dbKey, entry) == null && ++size >= maxSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Execute the pending saves if a statement about to be prepared names one of their tables
+     *
+     * @param   sql                 The statement, null if it is not known yet
+     * @throws  SQLException        A pending save failed
+     */
+    void beforeStatement(String sql) throws SQLException {
+        if (size == 0 || flushing) {
+            return;
+        }
+        if (sql == null) {
+            flush();
+            return;
+        }
+        for (String table : pending.keySet()) {
+            if (tableNames.computeIfAbsent(table, t -> Pattern.compile("\\b" + Pattern.quote(t) + "\\b", Pattern.CASE_INSENSITIVE))
+                    .matcher(sql).find()) {
+                flush();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Execute all pending saves
+     *
+     * @throws  SQLException        A pending save failed, the message names its table, key and height
+     */
+    void flush() throws SQLException {
+        if (size == 0 || flushing) {
+            return;
+        }
+        Map<String, Map<DbKey, Entry>> batch = pending;
+        pending = new LinkedHashMap<>();
+        size = 0;
+        flushing = true;
+        try {
+            for (Map<DbKey, Entry> entries : batch.values()) {
+                List<Entry> all = new ArrayList<>(entries.values());
+                try (PreparedStatement pstmt = con.prepareStatement(all.get(0).latestSql)) {
+                    for (Entry entry : all) {
+                        entry.dbKey.setPK(pstmt);
+                        pstmt.addBatch();
+                    }
+                    executeBatch(pstmt, all);
+                }
+                Map<String, List<Entry>> bySql = new LinkedHashMap<>();
+                all.forEach(entry -> bySql.computeIfAbsent(entry.row.sql, sql -> new ArrayList<>()).add(entry));
+                for (Map.Entry<String, List<Entry>> sqlEntries : bySql.entrySet()) {
+                    try (PreparedStatement pstmt = con.prepareStatement(sqlEntries.getKey())) {
+                        for (Entry entry : sqlEntries.getValue()) {
+                            bind(pstmt, entry.row);
+                            pstmt.addBatch();
+                        }
+                        executeBatch(pstmt, sqlEntries.getValue());
+                    }
+                }
+            }
+        } finally {
+            flushing = false;
+        }
+    }
+
+    /**
+     * Drop the pending saves, the transaction is rolled back
+     */
+    void discard() {
+        pending.clear();
+        size = 0;
+    }
+
+    // runs the batch, a failure is reported for the first entry the driver did not execute
+    private static void executeBatch(PreparedStatement pstmt, List<Entry> entries) throws SQLException {
+        try {
+            pstmt.executeBatch();
+        } catch (BatchUpdateException e) {
+            int[] counts = e.getUpdateCounts();
+            int failed = counts == null ? 0 : counts.length;
+            for (int i = 0; counts != null && i < counts.length; i++) {
+                if (counts[i] == Statement.EXECUTE_FAILED) {
+                    failed = i;
+                    break;
+                }
+            }
+            Entry entry = entries.get(Math.min(failed, entries.size() - 1));
+            SQLException cause = e.getNextException() != null ? e.getNextException() : e;
+            throw new SQLException("Save of " + entry + " failed: " + cause.getMessage(), cause.getSQLState(), cause.getErrorCode(), e);
+        }
+    }
+
+    // the rows the save writes, or null if it cannot be recorded
+    private static List<Row> record(Save save) throws SQLException {
+        List<Row> rows = new ArrayList<>();
+        Connection recorder = (Connection) Proxy.newProxyInstance(WriteBehind.class.getClassLoader(), new Class<?>[] {Connection.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("prepareStatement") && args.length == 1) {
+                        return recordingStatement((String) args[0], rows);
+                    } else if (method.getName().equals("close")) {
+                        return null;
+                    }
+                    throw NotRecordable.INSTANCE;
+                });
+        try {
+            save.save(recorder);
+        } catch (NotRecordable e) {
+            return null;
+        }
+        return rows;
+    }
+
+    // keeps the parameters and hands them to the list of rows on executeUpdate, like a statement that executed them
+    private static PreparedStatement recordingStatement(String sql, List<Row> rows) {
+        Row[] row = {new Row(sql)};
+        return (PreparedStatement) Proxy.newProxyInstance(WriteBehind.class.getClassLoader(), new Class<?>[] {PreparedStatement.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.startsWith("set") && args != null && args.length == 2 && method.getParameterTypes()[0] == int.class) {
+                        Object value = args[1] instanceof byte[] ? ((byte[]) args[1]).clone()
+                                : args[1] instanceof Object[] ? ((Object[]) args[1]).clone() : args[1];
+                        row[0].binds.add(pstmt -> set(pstmt, method, args[0], value));
+                        return null;
+                    } else if (name.equals("executeUpdate") && args == null) {
+                        rows.add(row[0]);
+                        Row next = new Row(sql);
+                        next.binds.addAll(row[0].binds);
+                        row[0] = next;
+                        return 1;
+                    } else if (name.equals("clearParameters")) {
+                        row[0].binds.clear();
+                        return null;
+                    } else if (name.equals("close")) {
+                        return null;
+                    }
+                    throw NotRecordable.INSTANCE;
+                });
+    }
+
+    private static void set(PreparedStatement pstmt, Method setter, Object index, Object value) throws SQLException {
+        try {
+            setter.invoke(pstmt, index, value);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause().toString(), e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static void bind(PreparedStatement pstmt, Row row) throws SQLException {
+        for (Bind bind : row.binds) {
+            bind.bind(pstmt);
+        }
+    }
+
+    private static boolean isMerge(String sql) {
+        return sql.trim().regionMatches(true, 0, "MERGE ", 0, 6);
+    }
+}
@@ -25,7 +25,6 @@ import org.xel.peer.Hallmark;
 
 import javax.servlet.http.HttpServletRequest;
 
-import java.util.Map;
 
 import static org.xel.http.JSONResponses.INCORRECT_HALLMARK;
 import static org.xel.http.JSONResponses.MISSING_HALLMARK;
@@ -52,11 +51,7 @@ public final class GetLastBlockId extends APIServlet.APIRequestHandler {
         } catch (ParameterException e) {
         }
         if (account != null) {
-            long adjuster = 0;
-            Map<Long, Long> unmap = UnconfirmedGetter.refreshMap();
-            if(unmap.containsKey(account.getId())){
-                adjuster = unmap.get(account.getId());
-            }
+            long adjuster = UnconfirmedGetter.getView().getBalanceChange(account.getId());
             o.put("unconfirmedBalanceNQT", String.valueOf(account.getBalanceNQT() + adjuster));
         }
         return o;
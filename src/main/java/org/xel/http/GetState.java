@@ -19,12 +19,14 @@ package org.xel.http;
 
 import org.json.simple.JSONArray;
 import org.xel.*;
-import org.xel.computation.CustomTransactionBuilder;
-import org.xel.computation.Pair;
-import org.xel.db.DbIterator;
+import org.xel.computation.AttachmentCache;
+import org.xel.computation.PayoutPlanner;
+import org.xel.computation.ProgramCache;
+import org.xel.computation.VerificationResultCache;
+import org.xel.db.ReadCache;
+import org.xel.db.StatementCache;
 import org.xel.peer.Peers;
 
-import org.xel.util.Logger;
 import org.xel.util.UPnP;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
@@ -33,9 +35,7 @@ import javax.servlet.http.HttpServletRequest;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public final class GetState extends APIServlet.APIRequestHandler {
 
@@ -63,6 +63,20 @@ public final class GetState extends APIServlet.APIRequestHandler {
         } catch (ParameterException e) {
         }
 
+        boolean includeTrimStats = false;
+
+        try {
+            includeTrimStats = ParameterParser.getBooleanByString(req, "includeTrimStats", false);
+        } catch (ParameterException e) {
+        }
+
+        boolean includeCacheStats = false;
+
+        try {
+            includeCacheStats = ParameterParser.getBooleanByString(req, "includeCacheStats", false);
+        } catch (ParameterException e) {
+        }
+
         if ("true".equalsIgnoreCase(req.getParameter("includeCounts")) && API.checkPassword(req)) {
             response.put("numberOfTransactions", Nxt.getBlockchain().getTransactionCount());
             response.put("numberOfAccounts", Account.getCount());
@@ -92,6 +106,62 @@ public final class GetState extends APIServlet.APIRequestHandler {
             response.put("totalClosed", Work.getCount()-Work.getActiveCount());
             response.put("grabs", Work.getGrabs());
         }
+        if (includeCacheStats) {
+            JSONObject programCache = new JSONObject();
+            programCache.put("hits", ProgramCache.getHits());
+            programCache.put("misses", ProgramCache.getMisses());
+            programCache.put("size", ProgramCache.getSize());
+            programCache.put("capacity", ProgramCache.getCapacity());
+            response.put("programCache", programCache);
+            JSONObject verificationResultCache = new JSONObject();
+            verificationResultCache.put("hits", VerificationResultCache.getHits());
+            verificationResultCache.put("misses", VerificationResultCache.getMisses());
+            verificationResultCache.put("size", VerificationResultCache.getSize());
+            verificationResultCache.put("capacity", VerificationResultCache.getCapacity());
+            response.put("verificationResultCache", verificationResultCache);
+            JSONObject attachmentCache = new JSONObject();
+            attachmentCache.put("hits", AttachmentCache.getHits());
+            attachmentCache.put("misses", AttachmentCache.getMisses());
+            attachmentCache.put("size", AttachmentCache.getSize());
+            attachmentCache.put("capacity", AttachmentCache.getCapacity());
+            response.put("attachmentCache", attachmentCache);
+            JSONObject statementCache = new JSONObject();
+            statementCache.put("hits", StatementCache.getHits());
+            statementCache.put("misses", StatementCache.getMisses());
+            statementCache.put("evictions", StatementCache.getEvictions());
+            statementCache.put("capacity", StatementCache.getCapacity());
+            response.put("statementCache", statementCache);
+            JSONObject readCaches = new JSONObject();
+            for (ReadCache cache : ReadCache.getAll()) {
+                JSONObject readCache = new JSONObject();
+                readCache.put("hits", cache.getHits());
+                readCache.put("misses", cache.getMisses());
+                readCache.put("evictions", cache.getEvictions());
+                readCache.put("invalidations", cache.getInvalidations());
+                readCache.put("size", cache.getSize());
+                readCache.put("capacity", cache.getCapacity());
+                readCaches.put(cache.getTable(), readCache);
+            }
+            response.put("readCaches", readCaches);
+        }
+
+        if (includeTrimStats) {
+            JSONObject trimmers = new JSONObject();
+            for (DerivedTableTrimmer trimmer : DerivedTableTrimmer.getAll()) {
+                JSONObject json = new JSONObject();
+                json.put("trimming", trimmer.isTrimming());
+                json.put("height", trimmer.getHeight());
+                json.put("tables", trimmer.getTableCount());
+                json.put("tablesDone", trimmer.getTablesDone());
+                json.put("table", trimmer.getTable());
+                json.put("tableBacklog", trimmer.getTableBacklog());
+                json.put("slices", trimmer.getSlices());
+                json.put("passes", trimmer.getPasses());
+                json.put("lastPassMillis", trimmer.getLastPassMillis());
+                trimmers.put(trimmer.getName(), json);
+            }
+            response.put("trim", trimmers);
+        }
         try {
 
             long myid;
@@ -106,21 +176,13 @@ public final class GetState extends APIServlet.APIRequestHandler {
             Account account = Account.getAccount(myid);
             if (account == null) {
                 response.put("balanceNQT", "0");
-                long adjuster = 0;
-                Map<Long, Long> unmap = UnconfirmedGetter.refreshMap();
-                if(unmap.containsKey(myid)){
-                    adjuster = unmap.get(myid);
-                }
+                long adjuster = UnconfirmedGetter.getView().getBalanceChange(myid);
                 response.put("unconfirmedBalanceNQT",  String.valueOf(adjuster));
                 response.put("forgedBalanceNQT", "0");
 
             } else {
                 response.put("balanceNQT", String.valueOf(account.getBalanceNQT()));
-                long adjuster = 0;
-                Map<Long, Long> unmap = UnconfirmedGetter.refreshMap();
-                if(unmap.containsKey(account.getId())){
-                    adjuster = unmap.get(account.getId());
-                }
+                long adjuster = UnconfirmedGetter.getView().getBalanceChange(account.getId());
                 response.put("unconfirmedBalanceNQT", String.valueOf(account.getBalanceNQT() + adjuster));
                 response.put("forgedBalanceNQT", String.valueOf(account.getForgedBalanceNQT()));
 
@@ -134,73 +196,7 @@ public final class GetState extends APIServlet.APIRequestHandler {
             AlternativeChainPubkeys pp = AlternativeChainPubkeys.getKnownIdentity(myid);
             byte[] publicKey = (pp!=null)?pp.getPubkey():null;
             if(publicKey!=null) {
-                Map<Long,Pair<String, Long>> earnings = new HashMap<>();
-                List<Work> itw = Work.getActiveAndRecentlyClosedByAccountId(myid);
-                for (Work w : itw) {
-                    //Logger.logDebugMessage(" > open work " + w.getId());
-                    try (DbIterator<PowAndBounty> unpaidit = PowAndBounty.getUnpaidSubmission(w.getId())) {
-                        while (unpaidit.hasNext()) {
-                            PowAndBounty b = unpaidit.next();
-
-                            // is it really unpaid?
-                            UnconfirmedGetter.refreshMap();
-                            if(UnconfirmedGetter.getUnMapPaidBty().contains(b.getId())){
-                                Logger.logDebugMessage("Skipping unpaid BTY (" + b.getId() + " because it is in the Unconf cache");
-                                continue;
-                            }
-
-                            //Logger.logDebugMessage("    > unpaid bty " + b.getId() + ", isPOW = " + b.is_pow + ", payout = " + ((b.is_pow) ? w.getXel_per_pow() : w.getXel_per_bounty()));
-                            Pair<String, Long> oldpair = null;
-                            if(earnings.containsKey(b.getAccountId())){
-                                oldpair = earnings.get(b.getAccountId());
-                            }else
-                            {
-                                oldpair = new Pair<>("", 0L);
-                            }
-
-
-                            if(oldpair.getElement0().length()==0)
-                                oldpair.setElement0("/!" + String.valueOf(b.getId()));
-                            else
-                                oldpair.setElement0(oldpair.getElement0() + ",/!" + String.valueOf(b.getId()));
-                            oldpair.setElement1(oldpair.getElement1() + ((b.is_pow) ? w.getXel_per_pow() : w.getXel_per_bounty()));
-                            earnings.put(b.getAccountId(), oldpair);
-
-                            // Flush if message too long
-                            if(oldpair.getElement0().length() > Constants.MAX_ARBITRARY_MESSAGE_LENGTH-16){ // arbitrary safegap
-                                Appendix.Message prunablePlainMessage = new Appendix.Message(oldpair.getElement0(), true);
-                                try {
-                                    Pair<JSONStreamAware, JSONStreamAware> pr = CustomTransactionBuilder.createTransactionPubkey(prunablePlainMessage, publicKey,3, oldpair.getElement1(), b.getAccountId());
-                                    JSONArray ffb = new JSONArray();
-                                    ffb.add(pr.getElement0());
-                                    ffb.add(pr.getElement1());
-                                    awork.add(ffb);
-                                    earnings.remove(b.getAccountId());
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                }
-                            }
-
-                        }
-                    }
-                }
-                /* Here, we end to decide which payments need to be done */
-
-
-                // Build all remaining TX
-                for(Long k : earnings.keySet()){
-                    Pair<String, Long> payment = earnings.get(k);
-                    Appendix.Message prunablePlainMessage = new Appendix.Message(payment.getElement0(), true);
-                    try {
-                        Pair<JSONStreamAware, JSONStreamAware> pr = CustomTransactionBuilder.createTransactionPubkey(prunablePlainMessage, publicKey,1, payment.getElement1(), k);
-                        JSONArray ffb = new JSONArray();
-                        ffb.add(pr.getElement0());
-                        ffb.add(pr.getElement1());
-                        awork.add(ffb);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                }
+                awork = PayoutPlanner.plan(myid, publicKey);
 
                 response.put("pendingPayouts", awork);
 
@@ -0,0 +1,255 @@
+package org.xel;
+
+import org.junit.BeforeClass;
+import org.xel.db.ComputationalDerivedDbTable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Tests of the in-memory caches in front of the database. The database is created in a temporary directory with the
+ full schema, without starting the node, and is shared by all test classes of the JVM. It is set up through the
+ nxt.properties system property, which Nxt only reads when it is loaded, so these tests can not run in a JVM that
+ initialized Nxt before.
+
+ Rows are written with SQL followed by the calls the table classes make when they save them, at heights the test
+ chooses (the table classes save at the height of the chain, which stays at 0 here).
+ */
+public abstract class AbstractDbTest {
+
+    private static File dir;
+
+    public interface Sql {
+        void run(Connection con) throws SQLException;
+    }
+
+    @BeforeClass
+    public static synchronized void initDb() throws IOException {
+        if (dir != null) {
+            return;
+        }
+        dir = Files.createTempDirectory("xel-db-test").toFile();
+        String url = "jdbc:h2:" + new File(dir, "nxt").getAbsolutePath() + ";DB_CLOSE_ON_EXIT=FALSE;MVCC=TRUE;MV_STORE=FALSE";
+        Properties properties = new Properties();
+        properties.setProperty("nxt.dbUrl", url);
+        properties.setProperty("nxt.testDbUrl", url);
+        properties.setProperty("nxt.readCacheSize.read_cache_test", "100");
+        properties.setProperty("nxt.dbStatementCacheSize", "4");
+        properties.setProperty("nxt.trimSliceSize", "7");
+        properties.setProperty("nxt.trimSlicePause", "0");
+        File file = new File(dir, "nxt.properties");
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, null);
+        }
+        System.setProperty("nxt.properties", file.getAbsolutePath());
+        if (!url.equals(Nxt.getStringProperty("nxt.dbUrl"))) {
+            throw new IllegalStateException("Nxt was loaded before the test database was set up");
+        }
+        Db.init();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            Db.shutdown();
+            delete(dir);
+        }));
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+
+    protected static void inTransaction(Sql sql) {
+        Db.db.beginTransaction();
+        try (Connection con = Db.db.getConnection()) {
+            sql.run(con);
+            Db.db.commitTransaction();
+        } catch (SQLException e) {
+            Db.db.rollbackTransaction();
+            throw new RuntimeException(e.toString(), e);
+        } catch (RuntimeException | Error e) {
+            Db.db.rollbackTransaction();
+            throw e;
+        } finally {
+            Db.db.endTransaction();
+        }
+    }
+
+    // runs sql in a transaction that is rolled back
+    protected static void inRolledBackTransaction(Sql sql) {
+        Db.db.beginTransaction();
+        try (Connection con = Db.db.getConnection()) {
+            sql.run(con);
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        } finally {
+            Db.db.rollbackTransaction();
+            Db.db.endTransaction();
+        }
+    }
+
+    protected static void execute(Connection con, String sql, Object... parameters) throws SQLException {
+        try (PreparedStatement pstmt = con.prepareStatement(sql)) {
+            set(pstmt, parameters);
+            pstmt.executeUpdate();
+        }
+    }
+
+    // through the connection of the running transaction, if any
+    protected static List<Long> queryLongs(String sql, Object... parameters) {
+        List<Long> values = new ArrayList<>();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement(sql)) {
+            set(pstmt, parameters);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    values.add(rs.getLong(1));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        return values;
+    }
+
+    private static void set(PreparedStatement pstmt, Object... parameters) throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            pstmt.setObject(i + 1, parameters[i]);
+        }
+    }
+
+    // a row of the work table, saved as a new version with saveWork
+    protected static final class WorkRow {
+        final long id;
+        final long senderAccountId;
+        int originatingHeight = 1;
+        short blocksRemaining = 100;
+        boolean closed = false;
+        long xelPerPow = 10;
+        int capNumberPow = 5;
+        int receivedPows = 0;
+        long xelPerBounty = 100;
+        int bountyLimitPerIteration = 2;
+        int iterations = 3;
+        int iterationsLeft = 3;
+        int receivedBounties = 0;
+        int storageSize = 2;
+
+        WorkRow(long id, long senderAccountId) {
+            this.id = id;
+            this.senderAccountId = senderAccountId;
+        }
+    }
+
+    // a new version of the work, what Work.JustSave does
+    protected static void saveWork(Connection con, WorkRow work, int height) throws SQLException {
+        execute(con, "UPDATE work SET latest = FALSE WHERE id = ? AND latest = TRUE", work.id);
+        execute(con, "MERGE INTO work (id, cap_number_pow, closing_timestamp, block_id, sender_account_id, xel_per_pow, "
+                        + "iterations, iterations_left, blocks_remaining, closed, cancelled, timedout, xel_per_bounty, "
+                        + "received_bounties, received_pows, bounty_limit_per_iteration, originating_height, height, "
+                        + "storage_size, source_code, latest) KEY (id, height) "
+                        + "VALUES (?, ?, 0, 0, ?, ?, ?, ?, ?, ?, FALSE, FALSE, ?, ?, ?, ?, ?, ?, ?, 'epl', TRUE)",
+                work.id, work.capNumberPow, work.senderAccountId, work.xelPerPow, work.iterations, work.iterationsLeft,
+                work.blocksRemaining, work.closed, work.xelPerBounty, work.receivedBounties, work.receivedPows,
+                work.bountyLimitPerIteration, work.originatingHeight, height, work.storageSize);
+        Db.db.clearCache();
+        ActiveWorkRegistry.saved(Work.getWork(work.id));
+    }
+
+    // a new submission, what PowAndBounty.addPowBty does
+    protected static void addSubmission(Connection con, long id, long workId, boolean isPow, byte[] multiplier,
+                                        byte[] verificatorHash, byte[] storage, int height) throws SQLException {
+        saveSubmission(con, id, workId, isPow, false, multiplier, verificatorHash, storage, height);
+        SubmissionIndex.added(workId, multiplier, verificatorHash);
+        StorageSnapshots.saved(workId);
+        ActiveWorkRegistry.submissionSaved(workId, id, false);
+    }
+
+    // a submission paid, what PowAndBounty.JustSave does
+    protected static void paySubmission(Connection con, long id, int height) throws SQLException {
+        long workId;
+        try (PreparedStatement pstmt = con.prepareStatement("SELECT work_id FROM pow_and_bounty WHERE id = ? AND latest = TRUE")) {
+            pstmt.setLong(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                rs.next();
+                workId = rs.getLong(1);
+            }
+        }
+        execute(con, "UPDATE pow_and_bounty SET latest = FALSE WHERE id = ? AND latest = TRUE", id);
+        execute(con, "INSERT INTO pow_and_bounty (id, work_id, multiplier, storage_bucket, submitted_storage, account_id, "
+                + "is_pow, verificator_hash, was_paid, publickey, timestamp, height, latest) SELECT id, work_id, multiplier, "
+                + "storage_bucket, submitted_storage, account_id, is_pow, verificator_hash, TRUE, publickey, timestamp, ?, "
+                + "TRUE FROM pow_and_bounty WHERE id = ? AND height = (SELECT MAX(height) FROM pow_and_bounty WHERE id = ?)",
+                height, id, id);
+        StorageSnapshots.saved(workId);
+        ActiveWorkRegistry.submissionSaved(workId, id, true);
+    }
+
+    private static void saveSubmission(Connection con, long id, long workId, boolean isPow, boolean paid, byte[] multiplier,
+                                       byte[] verificatorHash, byte[] storage, int height) throws SQLException {
+        execute(con, "UPDATE pow_and_bounty SET latest = FALSE WHERE id = ? AND latest = TRUE", id);
+        execute(con, "MERGE INTO pow_and_bounty (id, work_id, multiplier, storage_bucket, submitted_storage, account_id, "
+                        + "is_pow, verificator_hash, was_paid, publickey, timestamp, height, latest) KEY (id, height) "
+                        + "VALUES (?, ?, ?, 0, ?, 1, ?, ?, ?, X'00', 0, ?, TRUE)",
+                id, workId, multiplier, storage, isPow, verificatorHash, paid, height);
+    }
+
+    // pops the work and pow_and_bounty tables off to height in a transaction of its own
+    protected static void rollbackComputationTables(int height) {
+        inTransaction(con -> popOffComputationTables(height));
+    }
+
+    // pops the work and pow_and_bounty tables off to height within the running transaction, as the computation chain does
+    protected static void popOffComputationTables(int height) {
+        // the tables register with the computation chain when their classes are loaded
+        Work.init();
+        PowAndBounty.init();
+        for (ComputationalDerivedDbTable table : TemporaryComputationBlockchainProcessorImpl.getInstance().getDerivedTables()) {
+            if (table.toString().equals("work") || table.toString().equals("pow_and_bounty")) {
+                table.rollback(height);
+            }
+        }
+    }
+
+    // what another thread, outside the transaction of this one, gets
+    protected static <T> T onOtherThread(Callable<T> callable) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(callable).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.xel;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xel.db.DbIterator;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+public class ActiveWorkRegistryTest extends AbstractDbTest {
+
+    private static final long[] SENDERS = {1, 2, 3};
+
+    private final Random random = new Random(5);
+    private final Map<Long, WorkRow> works = new TreeMap<>();
+    private final List<Long> unpaid = new ArrayList<>();
+    private long nextWorkId = 300;
+    private long nextSubmissionId = 5000;
+    private int height = 1;
+
+    @Before
+    public void clear() {
+        rollbackComputationTables(0);
+    }
+
+    @Test
+    public void committedBlocks() {
+        for (int i = 0; i < 20; ++i) {
+            inTransaction(con -> block(con, 6));
+            check();
+        }
+    }
+
+    @Test
+    public void ownTransaction() throws Exception {
+        for (int i = 0; i < 5; ++i) {
+            inTransaction(con -> block(con, 6));
+        }
+        check();
+        Db.db.beginTransaction();
+        try {
+            Connection con = Db.db.getConnection();
+            for (int i = 0; i < 5; ++i) {
+                block(con, 6);
+                check();
+                onOtherThread(() -> {
+                    check();
+                    return null;
+                });
+            }
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        check();
+    }
+
+    @Test
+    public void rolledBackTransaction() {
+        for (int i = 0; i < 5; ++i) {
+            inTransaction(con -> block(con, 6));
+        }
+        check();
+        int lastHeight = height;
+        inRolledBackTransaction(con -> {
+            for (int i = 0; i < 5; ++i) {
+                block(con, 6);
+                check();
+            }
+        });
+        check();
+        height = lastHeight;
+        reload();
+        for (int i = 0; i < 5; ++i) {
+            inTransaction(con -> block(con, 6));
+            check();
+        }
+    }
+
+    @Test
+    public void rollbackOfTables() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            inTransaction(con -> block(con, 6));
+        }
+        check();
+        int rollbackHeight = height - 5;
+        Db.db.beginTransaction();
+        try {
+            popOffComputationTables(rollbackHeight);
+            check();
+            onOtherThread(() -> {
+                check();
+                return null;
+            });
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        check();
+        height = rollbackHeight;
+        reload();
+        for (int i = 0; i < 5; ++i) {
+            inTransaction(con -> block(con, 6));
+            check();
+        }
+    }
+
+    // a block of random work and submission changes, at the next height
+    private void block(Connection con, int changes) throws SQLException {
+        height++;
+        for (int i = 0; i < changes; ++i) {
+            List<WorkRow> active = new ArrayList<>();
+            works.values().forEach(w -> {
+                if (!w.closed) {
+                    active.add(w);
+                }
+            });
+            int action = random.nextInt(6);
+            if (action == 0 || active.isEmpty()) {
+                WorkRow work = new WorkRow(nextWorkId++, SENDERS[random.nextInt(SENDERS.length)]);
+                work.originatingHeight = height;
+                work.blocksRemaining = (short) (1 + random.nextInt(20));
+                works.put(work.id, work);
+                saveWork(con, work, height);
+                continue;
+            }
+            WorkRow work = active.get(random.nextInt(active.size()));
+            if (action == 1) {
+                work.closed = true;
+                saveWork(con, work, height);
+            } else if (action == 2) {
+                work.receivedPows++;
+                work.receivedBounties++;
+                saveWork(con, work, height);
+            } else if (action == 3 || unpaid.isEmpty()) {
+                long id = nextSubmissionId++;
+                addSubmission(con, id, work.id, random.nextBoolean(), null, null, null, height);
+                unpaid.add(id);
+            } else {
+                long id = unpaid.remove(random.nextInt(unpaid.size()));
+                paySubmission(con, id, height);
+            }
+        }
+    }
+
+    // the works and unpaid submissions of the database, after a rollback
+    private void reload() {
+        works.clear();
+        unpaid.clear();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmtWorks = con.prepareStatement("SELECT * FROM work WHERE latest = TRUE");
+             PreparedStatement pstmtUnpaid = con.prepareStatement("SELECT id FROM pow_and_bounty WHERE latest = TRUE "
+                     + "AND was_paid = FALSE")) {
+            try (ResultSet rs = pstmtWorks.executeQuery()) {
+                while (rs.next()) {
+                    WorkRow work = new WorkRow(rs.getLong("id"), rs.getLong("sender_account_id"));
+                    work.originatingHeight = rs.getInt("originating_height");
+                    work.blocksRemaining = rs.getShort("blocks_remaining");
+                    work.closed = rs.getBoolean("closed");
+                    work.receivedPows = rs.getInt("received_pows");
+                    work.receivedBounties = rs.getInt("received_bounties");
+                    works.put(work.id, work);
+                }
+            }
+            try (ResultSet rs = pstmtUnpaid.executeQuery()) {
+                while (rs.next()) {
+                    unpaid.add(rs.getLong(1));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    // every answer of the registry against the queries it replaced, as seen by the calling thread
+    private static void check() {
+        for (int h = 0; h < 60; ++h) {
+            Assert.assertEquals(queryLongs("SELECT id FROM work WHERE latest = TRUE AND closed = FALSE "
+                    + "AND originating_height + blocks_remaining = ? ORDER BY id", h),
+                    new ArrayList<>(ActiveWorkRegistry.getTimingOut(h)));
+        }
+        List<Long> senders = queryLongs("SELECT DISTINCT sender_account_id FROM work WHERE latest = TRUE AND closed = FALSE");
+        if (Db.db.isInTransaction()) {
+            Assert.assertTrue(ActiveWorkRegistry.getSenders().containsAll(senders));
+        } else {
+            Assert.assertEquals(new HashSet<>(senders), ActiveWorkRegistry.getSenders());
+        }
+        Assert.assertEquals(sum(Work.getActiveWork()), ActiveWorkRegistry.getLiability());
+        for (long sender : SENDERS) {
+            Assert.assertEquals(queryLongs("SELECT id FROM work WHERE latest = TRUE AND closed = FALSE "
+                    + "AND sender_account_id = ? ORDER BY id", sender), new ArrayList<>(ActiveWorkRegistry.getWorksBySender(sender)));
+            Assert.assertEquals(sum(Work.getActiveWorkByUser(sender)), ActiveWorkRegistry.getLiability(sender));
+        }
+        for (int limit = 0; limit < 4; ++limit) {
+            Assert.assertEquals(queryLongs("SELECT w.id FROM work w WHERE w.latest = TRUE AND w.closed = FALSE AND "
+                    + "(SELECT COUNT(*) FROM pow_and_bounty p WHERE p.work_id = w.id AND p.latest = TRUE AND p.was_paid = FALSE) > ? "
+                    + "ORDER BY w.id", limit), new ArrayList<>(ActiveWorkRegistry.getWorksWithUnpaidAbove(limit)));
+        }
+    }
+
+    // the loop Work.getGrabs and Work.getGrabsByUser ran before the registry
+    private static long sum(DbIterator<Work> works) {
+        long grabs = 0;
+        try (DbIterator<Work> it = works) {
+            for (Work w : it) {
+                grabs += w.getXel_per_pow() * (w.getCap_number_pow() - w.getReceived_pows())
+                        + (w.getIterations_left() * w.getBounty_limit_per_iteration() * w.getXel_per_bounty()
+                        - w.getReceived_bounties() * w.getXel_per_bounty());
+            }
+        }
+        return grabs;
+    }
+}
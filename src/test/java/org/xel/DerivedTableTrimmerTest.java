@@ -0,0 +1,159 @@
+package org.xel;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xel.db.DbKey;
+import org.xel.db.VersionedEntityDbTable;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Two versioned tables with the same rows, one trimmed by a DerivedTableTrimmer in slices of 7 db_id values (see the
+ test properties), the other by the whole-table trim the trimmer replaced. Both must end up with the same rows.
+ */
+public class DerivedTableTrimmerTest extends AbstractDbTest {
+
+    private static final int KEYS = 40;
+
+    private static VersionedEntityDbTable<Object> sliced;
+    private static VersionedEntityDbTable<Object> whole;
+
+    private final Random random = new Random(23);
+    private int height = 0;
+
+    @BeforeClass
+    public static void createTables() {
+        inTransaction(con -> {
+            for (String table : new String[] {"trim_test_sliced", "trim_test_whole"}) {
+                execute(con, "DROP TABLE IF EXISTS " + table);
+                execute(con, "CREATE TABLE " + table + " (db_id IDENTITY, id BIGINT NOT NULL, v BIGINT NOT NULL, "
+                        + "height INT NOT NULL, latest BOOLEAN NOT NULL DEFAULT TRUE)");
+            }
+        });
+        sliced = table("trim_test_sliced");
+        whole = table("trim_test_whole");
+    }
+
+    // only trim and rollback are used, rows are written with SQL
+    private static VersionedEntityDbTable<Object> table(String name) {
+        return new VersionedEntityDbTable<Object>(name, new DbKey.LongKeyFactory<Object>("id") {
+            @Override
+            public DbKey newKey(Object o) {
+                throw new UnsupportedOperationException();
+            }
+        }) {
+            @Override
+            protected Object load(Connection con, ResultSet rs, DbKey dbKey) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            protected void save(Connection con, Object o) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void sameRowsAsWholeTableTrim() throws Exception {
+        DerivedTableTrimmer trimmer = new DerivedTableTrimmer("test", Nxt.getBlockchain(), Collections.singletonList(sliced),
+                () -> false);
+        int rows = 0;
+        for (int round = 0; round < 5; ++round) {
+            for (int i = 0; i < 10; ++i) {
+                inTransaction(con -> block(con, 15));
+            }
+            check();
+            int trimHeight = height - 5;
+            long slices = trimmer.getSlices();
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Assert.assertTrue(trimmer.start(trimHeight, executor));
+            } finally {
+                executor.shutdown();
+            }
+            inTransaction(con -> whole.trim(trimHeight));
+            Assert.assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+            Assert.assertEquals(round + 1, trimmer.getPasses());
+            Assert.assertTrue(trimmer.getSlices() - slices > 1);
+            Assert.assertFalse(trimmer.isTrimming());
+            check();
+            rows += 150;
+        }
+        // trimming did delete most of the versions
+        Assert.assertTrue(count("trim_test_sliced") < rows / 2);
+
+        int rollbackHeight = height - 3;
+        inTransaction(con -> {
+            sliced.rollback(rollbackHeight);
+            whole.rollback(rollbackHeight);
+        });
+        check();
+    }
+
+    // new versions and deletes of random keys in both tables, at the next height
+    private void block(Connection con, int changes) throws SQLException {
+        height++;
+        for (int i = 0; i < changes; ++i) {
+            long id = random.nextInt(KEYS);
+            boolean delete = random.nextInt(5) == 0;
+            long v = random.nextLong();
+            for (String table : new String[] {"trim_test_sliced", "trim_test_whole"}) {
+                execute(con, "UPDATE " + table + " SET latest = FALSE WHERE id = ? AND latest = TRUE", id);
+                execute(con, "DELETE FROM " + table + " WHERE id = ? AND height = ?", id, height);
+                execute(con, "INSERT INTO " + table + " (id, v, height, latest) VALUES (?, ?, ?, ?)", id, v, height, !delete);
+            }
+        }
+    }
+
+    private static void check() {
+        Assert.assertEquals(rows("trim_test_whole"), rows("trim_test_sliced"));
+    }
+
+    private static int count(String table) {
+        return queryLongs("SELECT COUNT(*) FROM " + table).get(0).intValue();
+    }
+
+    private static List<String> rows(String table) {
+        List<String> rows = new ArrayList<>();
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT id, v, height, latest FROM " + table
+                     + " ORDER BY id, height")) {
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    rows.add(rs.getLong(1) + "/" + rs.getLong(2) + "/" + rs.getInt(3) + "/" + rs.getBoolean(4));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,169 @@
+package org.xel;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+public class StorageSnapshotsTest extends AbstractDbTest {
+
+    private static final long WORK = 21;
+
+    private final Random random = new Random(11);
+    private final WorkRow work = new WorkRow(WORK, 1);
+    private int height = 1;
+    private long bountyId = 100;
+
+    @Before
+    public void clear() {
+        rollbackComputationTables(0);
+        work.receivedBounties = 0;
+        inTransaction(con -> saveWork(con, work, height));
+    }
+
+    @Test
+    public void rounds() {
+        bounties(2);
+        check();
+        check();
+        byte[] storage = StorageSnapshots.getStorage(Work.getWork(WORK), 0);
+        storage[0]++;
+        check();
+        bounties(1);
+        check();
+        bounties(3);
+        check();
+    }
+
+    @Test
+    public void wrongStorageSize() {
+        inTransaction(con -> {
+            addBounty(con, new byte[3]);
+            addBounty(con, storage());
+        });
+        check();
+    }
+
+    @Test
+    public void rolledBackTransaction() {
+        bounties(3);
+        check();
+        inRolledBackTransaction(con -> {
+            addBounty(con, storage());
+            addBounty(con, storage());
+            check();
+        });
+        check();
+    }
+
+    @Test
+    public void rollbackOfTable() throws Exception {
+        bounties(2);
+        int roundHeight = height;
+        bounties(2);
+        check();
+        byte[] before = StorageSnapshots.getStorage(Work.getWork(WORK), 1);
+        Db.db.beginTransaction();
+        try {
+            popOffComputationTables(roundHeight);
+            check();
+            // not committed yet, everybody else still sees the last round
+            Assert.assertArrayEquals(before, onOtherThread(() -> StorageSnapshots.getStorage(Work.getWork(WORK), 1)));
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        work.receivedBounties = 2;
+        Assert.assertEquals(2, Work.getWork(WORK).getReceived_bounties());
+        // the same count as before the rollback, with other rows behind it
+        height = roundHeight;
+        bounties(2);
+        check();
+    }
+
+    @Test
+    public void paidBounty() {
+        long firstBounty = bountyId;
+        bounties(4);
+        check();
+        // the oldest bounty moves to the top of the height order, the count stays the same
+        inTransaction(con -> {
+            paySubmission(con, firstBounty, ++height);
+            check();
+        });
+        check();
+        inTransaction(con -> paySubmission(con, firstBounty + 2, ++height));
+        check();
+    }
+
+    private void bounties(int count) {
+        inTransaction(con -> {
+            for (int i = 0; i < count; ++i) {
+                addBounty(con, storage());
+            }
+        });
+    }
+
+    // a bounty and the work counting it, at a height of their own
+    private void addBounty(Connection con, byte[] storage) throws SQLException {
+        height++;
+        addSubmission(con, bountyId++, WORK, false, null, null, storage, height);
+        work.receivedBounties++;
+        saveWork(con, work, height);
+    }
+
+    private byte[] storage() {
+        byte[] storage = new byte[work.storageSize * 4];
+        random.nextBytes(storage);
+        return storage;
+    }
+
+    // every slot of the last full round, against the query Work.getStorage ran
+    private static void check() {
+        Work work = Work.getWork(WORK);
+        int limit = work.getBounty_limit_per_iteration();
+        if (work.getReceived_bounties() < limit) {
+            return;
+        }
+        for (int slot = 0; slot < limit; ++slot) {
+            Assert.assertArrayEquals(fromDb(work, slot), StorageSnapshots.getStorage(work, slot));
+        }
+    }
+
+    private static byte[] fromDb(Work work, int slot) {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT submitted_storage FROM pow_and_bounty WHERE work_id = ? "
+                     + "AND is_pow = FALSE AND latest = TRUE ORDER BY height DESC LIMIT 1 OFFSET ?")) {
+            pstmt.setLong(1, work.getId());
+            pstmt.setInt(2, work.getReceived_bounties() % work.getBounty_limit_per_iteration() + slot);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                Assert.assertTrue(rs.next());
+                byte[] storage = rs.getBytes(1);
+                return storage.length == work.getStorage_size() * 4 ? storage : new byte[work.getStorage_size() * 4];
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+}
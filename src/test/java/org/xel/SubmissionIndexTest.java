@@ -0,0 +1,146 @@
+package org.xel;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+public class SubmissionIndexTest extends AbstractDbTest {
+
+    private static final long WORK = 11;
+    private static final long OTHER_WORK = 12;
+
+    private final Random random = new Random(7);
+    private final List<byte[]> multipliers = new ArrayList<>();
+    private final List<byte[]> hashes = new ArrayList<>();
+
+    @Before
+    public void clear() {
+        rollbackComputationTables(0);
+        for (int i = 0; i < 20; ++i) {
+            multipliers.add(bytes());
+            hashes.add(bytes());
+        }
+    }
+
+    @Test
+    public void committedSubmissions() {
+        add(0, 10, 1);
+        check();
+        add(10, 15, 11);
+        check();
+    }
+
+    @Test
+    public void ownTransaction() throws Exception {
+        add(0, 5, 1);
+        check();
+        Db.db.beginTransaction();
+        try {
+            addSubmission(Db.db.getConnection(), 5, WORK, false, multipliers.get(5), hashes.get(5), null, 6);
+            Assert.assertTrue(SubmissionIndex.mightHaveMultiplier(WORK, multipliers.get(5)));
+            Assert.assertTrue(SubmissionIndex.mightHaveVerificatorHash(WORK, hashes.get(5)));
+            Assert.assertTrue(PowAndBounty.hasMultiplier(WORK, multipliers.get(5)));
+            // not committed, so not there for anybody else
+            Assert.assertFalse(onOtherThread(() -> PowAndBounty.hasMultiplier(WORK, multipliers.get(5))));
+            check();
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        check();
+        Assert.assertTrue(SubmissionIndex.mightHaveMultiplier(WORK, multipliers.get(5)));
+    }
+
+    @Test
+    public void rolledBackTransaction() {
+        add(0, 5, 1);
+        check();
+        inRolledBackTransaction(con -> {
+            for (int i = 5; i < 10; ++i) {
+                addSubmission(con, i, i % 2 == 0 ? WORK : OTHER_WORK, false, multipliers.get(i), hashes.get(i), null, i + 1);
+            }
+            check();
+        });
+        check();
+        for (int i = 5; i < 10; ++i) {
+            Assert.assertFalse(PowAndBounty.hasMultiplier(i % 2 == 0 ? WORK : OTHER_WORK, multipliers.get(i)));
+        }
+    }
+
+    @Test
+    public void rollbackOfTable() throws Exception {
+        add(0, 12, 1);
+        check();
+        Db.db.beginTransaction();
+        try {
+            popOffComputationTables(6);
+            // rows from 6 on are gone for this transaction only
+            check();
+            Assert.assertTrue(onOtherThread(() -> PowAndBounty.hasMultiplier(WORK, multipliers.get(10))));
+            Assert.assertTrue(onOtherThread(() -> SubmissionIndex.mightHaveMultiplier(WORK, multipliers.get(10))));
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        check();
+        Assert.assertFalse(SubmissionIndex.mightHaveMultiplier(WORK, multipliers.get(10)));
+        add(6, 12, 7);
+        check();
+    }
+
+    // submission i at height first height + i - from, alternating between the two works
+    private void add(int from, int to, int firstHeight) {
+        inTransaction(con -> {
+            for (int i = from; i < to; ++i) {
+                addSubmission(con, i, i % 2 == 0 ? WORK : OTHER_WORK, i % 3 == 0, multipliers.get(i), hashes.get(i), null,
+                        firstHeight + i - from);
+            }
+        });
+    }
+
+    // the index never misses a row the count queries of PowAndBounty find, and the checks agree with those queries
+    private void check() {
+        for (long workId : new long[] {WORK, OTHER_WORK}) {
+            for (int i = 0; i < multipliers.size(); ++i) {
+                boolean hasMultiplier = !queryLongs("SELECT 1 FROM pow_and_bounty WHERE multiplier = ? AND work_id = ?",
+                        multipliers.get(i), workId).isEmpty();
+                boolean hasHash = !queryLongs("SELECT 1 FROM pow_and_bounty WHERE verificator_hash = ? AND work_id = ?",
+                        hashes.get(i), workId).isEmpty();
+                if (hasMultiplier) {
+                    Assert.assertTrue(SubmissionIndex.mightHaveMultiplier(workId, multipliers.get(i)));
+                }
+                if (hasHash) {
+                    Assert.assertTrue(SubmissionIndex.mightHaveVerificatorHash(workId, hashes.get(i)));
+                }
+                Assert.assertEquals(hasMultiplier, PowAndBounty.hasMultiplier(workId, multipliers.get(i)));
+                Assert.assertEquals(hasHash, PowAndBounty.hasVerificatorHash(workId, hashes.get(i)));
+            }
+        }
+    }
+
+    private byte[] bytes() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
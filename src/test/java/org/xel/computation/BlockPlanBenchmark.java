@@ -0,0 +1,73 @@
+package org.xel.computation;
+
+import org.xel.Appendix;
+
+import java.util.Random;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Decode time of a computation block full of new work messages, once per transaction as BlockPlan does against three
+ times (verification fan out and both apply passes) as processBlockInternal used to. Only the in memory part is
+ measured, the lookups of referenced chunks that AttachmentCache saves come on top of the old numbers.
+   java -cp target/classes:target/test-classes:<deps> org.xel.computation.BlockPlanBenchmark [blocks] [transactions per block]
+ */
+public class BlockPlanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int perBlock = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        Random random = new Random(42);
+
+        Appendix.Message[][] block = new Appendix.Message[perBlock][];
+        for (int i = 0; i < perBlock; ++i) {
+            StringBuilder source = new StringBuilder();
+            while (source.length() < 16 * 1024) {
+                source.append("m[").append(random.nextInt(12)).append("] = m[").append(random.nextInt(12)).append("] ^ ")
+                        .append(random.nextInt()).append(";\n");
+            }
+            block[i] = MessageEncoder.encodeAttachment(new CommandNewWork(10, (short) 250, 10, 100, 1, 10, source.toString()));
+        }
+
+        for (int round = 0; round < 2; ++round) {
+            // first round is warm up
+            long start = System.nanoTime();
+            for (int b = 0; b < blocks; ++b) decode(block, 3);
+            long perPass = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int b = 0; b < blocks; ++b) decode(block, 1);
+            long once = System.nanoTime() - start;
+
+            if (round == 1) {
+                System.out.println(String.format("%d new works of %d chunk(s) per block: per pass %8.2f ms, once %8.2f ms", perBlock,
+                        block[0].length, perPass / 1e6 / blocks, once / 1e6 / blocks));
+            }
+        }
+    }
+
+    private static void decode(Appendix.Message[][] block, int times) {
+        for (int i = 0; i < times; ++i) {
+            for (Appendix.Message[] chain : block) {
+                if (!MessageEncoder.checkMessageForPiggyback(chain[chain.length - 1], true, false)) continue;
+                if (MessageEncoder.decodeWorkPackage(MessageEncoder.joinWorkPackage(chain)) == null) {
+                    throw new IllegalStateException("work package does not decode");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.xel.computation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Time to hand one storage to the verifier's stdin, for storage sizes up to ComputationConstants.MAX_STORAGE_SIZE:
+ the old string concatenation against the single-pass text format.
+   java -cp target/classes:target/test-classes:<deps> org.xel.computation.StorageHandoffBenchmark [iterations]
+ */
+public class StorageHandoffBenchmark {
+
+    private static final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Random random = new Random(42);
+
+        for (int size : new int[]{1, 10, 50, 100, 250, ComputationConstants.MAX_STORAGE_SIZE}) {
+            byte[] storage = new byte[size * 4];
+            random.nextBytes(storage);
+            int[] ints = org.xel.util.Convert.byte2int(storage);
+
+            // warm up both before measuring
+            for (int i = 0; i < iterations / 10; ++i) {
+                concatenated(ints);
+                ExecutionEngine.writeStorage(storage, sink);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) concatenated(ints);
+            long concat = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) ExecutionEngine.writeStorage(storage, sink);
+            long text = System.nanoTime() - start;
+
+            System.out.println(String.format("storage %4d ints: concatenated %9.2f us, text %7.2f us", size,
+                    concat / 1e3 / iterations, text / 1e3 / iterations));
+        }
+    }
+
+    // what ExecutionEngine used to do
+    private static void concatenated(int[] storage) throws IOException {
+        String longstoryshort = "";
+        for (int i = 0; i < storage.length; ++i) {
+            longstoryshort += Integer.toUnsignedString(storage[i]) + "\n";
+        }
+        longstoryshort += "\n";
+        sink.write(longstoryshort.getBytes());
+    }
+}
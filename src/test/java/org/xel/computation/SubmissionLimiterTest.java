@@ -0,0 +1,96 @@
+package org.xel.computation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+public class SubmissionLimiterTest {
+
+    // the counters are static, every test counts for works of its own
+    @Test
+    public void countsAgainstMap() {
+        Random random = new Random(3);
+        Map<String, Integer> model = new HashMap<>();
+        for (int block = 0; block < 20; ++block) {
+            for (int i = 0; i < 200; ++i) {
+                long workId = 100 + random.nextInt(10);
+                boolean isPow = random.nextBoolean();
+                int count = model.merge(workId + "/" + isPow, 1, Integer::sum);
+                Assert.assertEquals(count, SubmissionLimiter.increment(workId, isPow));
+            }
+            for (long workId = 100; workId < 110; ++workId) {
+                Assert.assertEquals((int) model.getOrDefault(workId + "/true", 0), SubmissionLimiter.getCount(workId, true));
+                Assert.assertEquals((int) model.getOrDefault(workId + "/false", 0), SubmissionLimiter.getCount(workId, false));
+            }
+            SubmissionLimiter.nextEpoch();
+            model.clear();
+            for (long workId = 100; workId < 110; ++workId) {
+                Assert.assertEquals(0, SubmissionLimiter.getCount(workId, true));
+                Assert.assertEquals(0, SubmissionLimiter.getCount(workId, false));
+            }
+        }
+    }
+
+    @Test
+    public void unknownWork() {
+        Assert.assertEquals(0, SubmissionLimiter.getCount(200, true));
+        Assert.assertEquals(0, SubmissionLimiter.getCount(200, false));
+        SubmissionLimiter.increment(200, true);
+        Assert.assertEquals(1, SubmissionLimiter.getCount(200, true));
+        Assert.assertEquals(0, SubmissionLimiter.getCount(200, false));
+    }
+
+    @Test
+    public void concurrentIncrements() throws Exception {
+        int threads = 8;
+        int increments = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> maxima = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                maxima.add(executor.submit((Callable<Integer>) () -> {
+                    int max = 0;
+                    for (int i = 0; i < increments; ++i) {
+                        max = Math.max(max, SubmissionLimiter.increment(300, true));
+                    }
+                    return max;
+                }));
+            }
+            int max = 0;
+            for (Future<Integer> f : maxima) {
+                max = Math.max(max, f.get());
+            }
+            // no increment got lost and every one of them saw a count of its own
+            Assert.assertEquals(threads * increments, max);
+            Assert.assertEquals(threads * increments, SubmissionLimiter.getCount(300, true));
+            Assert.assertEquals(0, SubmissionLimiter.getCount(300, false));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
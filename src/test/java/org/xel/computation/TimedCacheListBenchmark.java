@@ -0,0 +1,148 @@
+package org.xel.computation;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Operations/sec of TimedCacheList against the HashMap based implementation it replaced, with several threads doing
+ one put per PUT_EVERY has calls (roughly what prevalidation and block apply do with CommandPowBty.validationCache).
+ The old class is not thread safe, exceptions it throws under this load are counted and reported.
+   java -cp target/classes:target/test-classes:<deps> org.xel.computation.TimedCacheListBenchmark [seconds] [threads]
+ */
+public class TimedCacheListBenchmark {
+
+    private static final int PUT_EVERY = 8;
+    private static final int KEYS = 2048;
+
+    private interface PairSet {
+        void put(long key, long value);
+        boolean has(long key, long value);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        for (int round = 0; round < 2; ++round) {
+            // first round is warm up
+            LegacyTimedCacheList legacy = new LegacyTimedCacheList();
+            run("legacy HashMap", seconds, threads, new PairSet() {
+                public void put(long key, long value) { legacy.put(key, value); }
+                public boolean has(long key, long value) { return legacy.has(key, value); }
+            }, round == 1);
+            TimedCacheList wheel = new TimedCacheList();
+            run("time wheel", seconds, threads, new PairSet() {
+                public void put(long key, long value) { wheel.put(key, value); }
+                public boolean has(long key, long value) { return wheel.has(key, value); }
+            }, round == 1);
+        }
+    }
+
+    private static void run(String name, int seconds, int threads, PairSet set, boolean report) throws InterruptedException {
+        AtomicLong operations = new AtomicLong();
+        AtomicLong failures = new AtomicLong();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long done = 0;
+                while (System.nanoTime() < end) {
+                    for (int i = 0; i < 1024; ++i) {
+                        long key = random.nextInt(KEYS);
+                        try {
+                            if (i % PUT_EVERY == 0) {
+                                set.put(key, key * 31);
+                            } else {
+                                set.has(key, key * 31);
+                            }
+                        } catch (RuntimeException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                    done += 1024;
+                }
+                operations.addAndGet(done);
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (report) {
+            System.out.println(String.format("%-16s %2d threads %12.0f ops/s %8d exceptions", name, threads,
+                    operations.get() / (double) seconds, failures.get()));
+        }
+    }
+
+    // TimedCacheList as it was before the time wheel
+    private static final class LegacyTimedCacheList {
+
+        private static int REFRESH_INTERVAL = 5;
+        private volatile long lastRefreshDate = (new Date()).getTime();
+        private volatile boolean cacheCurrentlyRefreshing;
+        private Map<Pair<Long, Long>, Long> map = new HashMap<>();
+
+        public void put(Long key, Long value) {
+            if (cacheNeedsRefresh()) {
+                refresh();
+            }
+            Pair<Long, Long> elem = new Pair<>(key,value);
+            map.put(elem, (new Date()).getTime());
+        }
+
+        public boolean has(Long key, Long value) {
+            Pair<Long, Long> elem = new Pair<>(key,value);
+            if (cacheNeedsRefresh()) {
+                refresh();
+            }
+            return map.containsKey(elem);
+        }
+
+        private boolean cacheNeedsRefresh() {
+            if (cacheCurrentlyRefreshing) {
+                return false;
+            }
+            return ((new Date()).getTime() - lastRefreshDate)/1000 >= REFRESH_INTERVAL;
+        }
+
+        private void refresh() {
+            if (cacheCurrentlyRefreshing) {
+                return;
+            }
+            cacheCurrentlyRefreshing = true;
+            try {
+                long currTm = ((new Date()).getTime());
+                for(Iterator<Map.Entry<Pair<Long, Long> ,Long>> it = map.entrySet().iterator(); it.hasNext();){
+                    Map.Entry<Pair<Long, Long>, Long> entry = it.next();
+                    if ((currTm - entry.getValue())/1000 > 240) {
+                        it.remove();
+                    }
+                }
+            } finally {
+                lastRefreshDate = (new Date()).getTime();
+                cacheCurrentlyRefreshing = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.xel.computation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Expiry needs a clock the class does not take, so only what holds within EXPIRY_SECONDS is checked here: it answers
+ like a set of pairs.
+ */
+public class TimedCacheListTest {
+
+    @Test
+    public void putAndHasAgainstSet() {
+        Random random = new Random(9);
+        TimedCacheList list = new TimedCacheList();
+        Set<List<Long>> model = new HashSet<>();
+        for (int i = 0; i < 2000; ++i) {
+            long key = random.nextInt(64);
+            long value = random.nextInt(64);
+            if (random.nextInt(3) == 0) {
+                list.put(key, value);
+                model.add(pair(key, value));
+            }
+            Assert.assertEquals(model.contains(pair(key, value)), list.has(key, value));
+        }
+        for (long key = 0; key < 64; ++key) {
+            for (long value = 0; value < 64; ++value) {
+                Assert.assertEquals(model.contains(pair(key, value)), list.has(key, value));
+            }
+        }
+    }
+
+    @Test
+    public void repeatedPutCountsOnce() {
+        TimedCacheList list = new TimedCacheList();
+        list.put(1, 2);
+        list.put(1, 2);
+        list.put(2, 1);
+        Assert.assertTrue(list.has(1, 2));
+        Assert.assertTrue(list.has(2, 1));
+        Assert.assertFalse(list.has(1, 1));
+        Assert.assertFalse(list.has(2, 2));
+        // both puts of (1, 2) land in the same slot unless the wheel turned in between
+        Assert.assertTrue(list.itemcnt() == 2 || list.itemcnt() == 3);
+    }
+
+    @Test
+    public void negativeAndExtremeValues() {
+        TimedCacheList list = new TimedCacheList();
+        long[] values = {Long.MIN_VALUE, -1, 0, 1, Long.MAX_VALUE};
+        for (long key : values) {
+            list.put(key, -key);
+        }
+        for (long key : values) {
+            for (long value : values) {
+                Assert.assertEquals(value == -key, list.has(key, value));
+            }
+        }
+    }
+
+    @Test
+    public void concurrentPuts() throws Exception {
+        int threads = 8;
+        int puts = 1000;
+        TimedCacheList list = new TimedCacheList(threads * puts);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> done = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                long key = t;
+                done.add(executor.submit(() -> {
+                    for (long value = 0; value < puts; ++value) {
+                        list.put(key, value);
+                        Assert.assertTrue(list.has(key, value));
+                    }
+                }));
+            }
+            for (Future<?> f : done) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        for (long key = 0; key < threads; ++key) {
+            for (long value = 0; value < puts; ++value) {
+                Assert.assertTrue(list.has(key, value));
+            }
+            Assert.assertFalse(list.has(key, puts));
+        }
+        Assert.assertEquals(threads * puts, list.itemcnt());
+    }
+
+    private static List<Long> pair(long key, long value) {
+        List<Long> pair = new ArrayList<>();
+        pair.add(key);
+        pair.add(value);
+        return pair;
+    }
+}
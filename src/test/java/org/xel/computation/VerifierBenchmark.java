@@ -0,0 +1,96 @@
+package org.xel.computation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Verifications/sec of the spawn path behind ExecutionEngine.compute against the xel_miner invocation it replaced,
+ which could only run one verification at a time. Threads beyond nxt.verificationParallelism wait for a sandbox.
+ Run from the project root with xel_miner installed in work/:
+   java -cp target/classes:target/test-classes:<deps> org.xel.computation.VerifierBenchmark [iterations] [threads]
+ */
+public class VerifierBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        ProgramCache.Program program = ProgramCache.forSource(-1, ExecutionEngine.getEplCode("src/test/testfiles/verification.epl"));
+        byte[] target = ExecutionEngine.getMaximumTargetForTesting();
+        target[0] = 0x49;
+        byte[] publicKey = new byte[32];
+        for (int i = 0; i < publicKey.length; ++i) publicKey[i] = (byte) (i * 7 + 1);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            spawnAsBefore(request(program, target, publicKey, i));
+        }
+        report("previous spawn", iterations, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; ++i) {
+            ExecutionEngine.computeBySpawning(request(program, target, publicKey, i));
+        }
+        report("computeBySpawning", iterations, System.nanoTime() - start);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        start = System.nanoTime();
+        for (int t = 0; t < threads; ++t) {
+            final int offset = t;
+            executor.submit(() -> {
+                for (int i = offset; i < iterations; i += threads) {
+                    ExecutionEngine.computeBySpawning(request(program, target, publicKey, i));
+                }
+                return null;
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+        report("computeBySpawning, " + threads + " threads", iterations, System.nanoTime() - start);
+    }
+
+    // the invocation ExecutionEngine.compute made before: the program in work/code.epl and the output read after the exit
+    private static void spawnAsBefore(VerificationRequest request) throws Exception {
+        try (PrintWriter printWriter = new PrintWriter(new FileWriter("work/code.epl"))) {
+            printWriter.print(request.program.getSource());
+        }
+        String cmd = String.format("./xel_miner --test-avoidcache --test-target %s --test-publickey %s --test-multiplicator %s --test-block %d --test-work %d --verify-only %s --test-stdin --test-vm code.epl", ExecutionEngine.bytesToHex(request.target), ExecutionEngine.bytesToHex(request.publicKey), ExecutionEngine.bytesToHex(request.multiplicator), request.blockId, request.workId, ExecutionEngine.verifierLimits());
+        Process process = Runtime.getRuntime().exec(cmd, null, new File("./work/"));
+        process.waitFor();
+        VerifierOutput.read(new BufferedReader(new InputStreamReader(process.getInputStream()))).getResult();
+    }
+
+    private static VerificationRequest request(ProgramCache.Program program, byte[] target, byte[] publicKey, int i) {
+        byte[] multiplicator = new byte[ComputationConstants.MULTIPLIER_LENGTH];
+        multiplicator[0] = (byte) i;
+        multiplicator[1] = (byte) (i >> 8);
+        return new VerificationRequest(target, publicKey, 123456789L, multiplicator, -1, program, new byte[0], true);
+    }
+
+    private static void report(String name, int iterations, long nanos) {
+        System.out.println(String.format("%-24s %8.1f verifications/s (%d in %.3f s)", name,
+                iterations / (nanos / 1e9), iterations, nanos / 1e9));
+    }
+}
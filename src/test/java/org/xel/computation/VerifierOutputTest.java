@@ -0,0 +1,111 @@
+package org.xel.computation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+public class VerifierOutputTest {
+
+    private static final String HASH = "00112233445566778899AABBCCDDEEFF";
+
+    @Test
+    public void powFound() throws IOException {
+        check("\u001b[32m[12:00:01] DEBUG: POW Found: true\u001b[0m\n"
+                + "[12:00:01] DEBUG: Bounty Found: false\n"
+                + "[12:00:01] DEBUG: storage size: 12\n"
+                + "[12:00:01] DEBUG: POW Hash: " + HASH + "\n");
+    }
+
+    @Test
+    public void bountyFoundWithChattyOutput() throws IOException {
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 200; ++i) {
+            output.append("[12:00:0").append(i % 10).append("] DEBUG: vm round ").append(i).append('\n');
+        }
+        output.append("\u001b[33m[12:00:02] DEBUG: Bounty Found: true\n")
+                .append("[12:00:02] DEBUG: POW Found: false\n")
+                .append("[12:00:02] DEBUG: POW Hash: ").append(HASH).append("   \n");
+        check(output.toString());
+    }
+
+    @Test
+    public void noResultLines() throws IOException {
+        check("[12:00:01] INFO: nothing to report\n");
+    }
+
+    @Test
+    public void errorLine() {
+        String output = "[12:00:01] DEBUG: POW Found: true\n"
+                + "\u001b[31m[12:00:01] ERROR: division by zero\n"
+                + "[12:00:01] DEBUG: Bounty Found: true\n";
+        try {
+            scrape(output);
+            Assert.fail();
+        } catch (IOException expected) {
+            try {
+                read(output).getResult();
+                Assert.fail();
+            } catch (IOException e) {
+                Assert.assertEquals(expected.getMessage(), e.getMessage());
+            }
+        }
+    }
+
+    private static void check(String output) throws IOException {
+        ComputationResult expected = scrape(output);
+        ComputationResult r = read(output).getResult();
+        Assert.assertEquals(expected.isPow, r.isPow);
+        Assert.assertEquals(expected.isBty, r.isBty);
+        Assert.assertEquals(expected.storage_size, r.storage_size);
+        Assert.assertArrayEquals(expected.powHash, r.powHash);
+    }
+
+    private static VerifierOutput read(String output) throws IOException {
+        return VerifierOutput.read(new BufferedReader(new StringReader(output)));
+    }
+
+    // the regex and substring scraping VerifierOutput replaced
+    private static ComputationResult scrape(String output) throws IOException {
+        ComputationResult r = new ComputationResult();
+        BufferedReader reader = new BufferedReader(new StringReader(output));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.replaceAll("\\[\\d+m", "").trim();
+            if (line.contains("ERROR") || line.contains("Error")) {
+                throw new IOException("EPL code produced error: " + line);
+            }
+            if (line.contains("DEBUG: POW Found:")) {
+                r.isPow = Boolean.parseBoolean(line.substring(line.lastIndexOf(":") + 2));
+            }
+            if (line.contains("DEBUG: Bounty Found:")) {
+                r.isBty = Boolean.parseBoolean(line.substring(line.lastIndexOf(":") + 2));
+            }
+            if (line.contains("DEBUG: storage size:")) {
+                r.storage_size = Integer.parseInt(line.substring(line.lastIndexOf(":") + 2));
+            }
+            if (line.contains("DEBUG: POW Hash:")) {
+                r.powHash = ExecutionEngine.hexStringToByteArray(line.substring(line.lastIndexOf(":") + 2, line.lastIndexOf(":") + 2 + 32));
+            }
+        }
+        return r;
+    }
+}
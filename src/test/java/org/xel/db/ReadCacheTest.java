@@ -0,0 +1,301 @@
+package org.xel.db;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xel.AbstractDbTest;
+import org.xel.Db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ The read cache of a versioned table of its own, with room for 100 rows in the test properties. The chain stays at
+ height 0, so rows are cached at 0 and saved at the heights the tests choose.
+ */
+public class ReadCacheTest extends AbstractDbTest {
+
+    private static final int KEYS = 20;
+
+    private static final class Row {
+        private final long id;
+        private long v;
+        private byte[] data;
+        private int height;
+
+        private Row(long id, long v, byte[] data, int height) {
+            this.id = id;
+            this.v = v;
+            this.data = data;
+            this.height = height;
+        }
+    }
+
+    private static final DbKey.LongKeyFactory<Row> rowDbKeyFactory = new DbKey.LongKeyFactory<Row>("id") {
+        @Override
+        public DbKey newKey(Row row) {
+            return newKey(row.id);
+        }
+    };
+
+    private static VersionedEntityDbTable<Row> table;
+
+    private final Random random = new Random(17);
+    private int height = 0;
+
+    @BeforeClass
+    public static void createTable() {
+        inTransaction(con -> {
+            execute(con, "DROP TABLE IF EXISTS read_cache_test");
+            execute(con, "CREATE TABLE read_cache_test (db_id IDENTITY, id BIGINT NOT NULL, v BIGINT NOT NULL, "
+                    + "data VARBINARY, height INT NOT NULL, latest BOOLEAN NOT NULL DEFAULT TRUE)");
+            execute(con, "CREATE UNIQUE INDEX read_cache_test_id_height_idx ON read_cache_test (id, height DESC)");
+        });
+        table = new VersionedEntityDbTable<Row>("read_cache_test", rowDbKeyFactory) {
+            @Override
+            protected Row load(Connection con, ResultSet rs, DbKey dbKey) throws SQLException {
+                return new Row(rs.getLong("id"), rs.getLong("v"), rs.getBytes("data"), rs.getInt("height"));
+            }
+
+            @Override
+            protected void save(Connection con, Row row) throws SQLException {
+                try (PreparedStatement pstmt = con.prepareStatement("MERGE INTO read_cache_test (id, v, data, height, latest) "
+                        + "KEY (id, height) VALUES (?, ?, ?, ?, TRUE)")) {
+                    pstmt.setLong(1, row.id);
+                    pstmt.setLong(2, row.v);
+                    pstmt.setBytes(3, row.data);
+                    pstmt.setInt(4, row.height);
+                    pstmt.executeUpdate();
+                }
+            }
+        };
+    }
+
+    @Before
+    public void clear() {
+        inTransaction(con -> table.truncate());
+        inTransaction(con -> {
+            for (int id = 0; id < KEYS; id += 2) {
+                table.insert(new Row(id, random.nextLong(), bytes(), height));
+            }
+        });
+    }
+
+    @Test
+    public void freshInstances() {
+        Row first = get(0);
+        long hits = cache().getHits();
+        Row second = get(0);
+        Assert.assertEquals(hits + 1, cache().getHits());
+        Assert.assertNotSame(first, second);
+        first.v++;
+        first.data[0]++;
+        Row third = get(0);
+        Assert.assertEquals(second.v, third.v);
+        Assert.assertArrayEquals(second.data, third.data);
+        check();
+    }
+
+    @Test
+    public void committedChanges() {
+        for (int round = 0; round < 10; ++round) {
+            check();
+            inTransaction(con -> change(10));
+            check();
+        }
+    }
+
+    @Test
+    public void rolledBackTransaction() {
+        check();
+        inRolledBackTransaction(con -> {
+            change(10);
+            check();
+        });
+        check();
+    }
+
+    @Test
+    public void ownTransaction() throws Exception {
+        check();
+        Row before = get(0);
+        Db.db.beginTransaction();
+        try {
+            Row row = table.get(rowDbKeyFactory.newKey(0));
+            row.v = before.v + 1;
+            row.height = ++height;
+            table.insert(row);
+            Assert.assertEquals(before.v + 1, get(0).v);
+            check();
+            // read and cached by another thread before the commit, it must not outlive it
+            Assert.assertEquals(before.v, (long) onOtherThread(() -> get(0).v));
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        Assert.assertEquals(before.v + 1, get(0).v);
+        check();
+    }
+
+    @Test
+    public void rollbackOfTable() throws Exception {
+        inTransaction(con -> change(10));
+        int rollbackHeight = height;
+        inTransaction(con -> change(10));
+        inTransaction(con -> change(10));
+        check();
+        Db.db.beginTransaction();
+        try {
+            table.rollback(rollbackHeight);
+            check();
+            onOtherThread(() -> {
+                check();
+                return null;
+            });
+            Db.db.commitTransaction();
+        } finally {
+            Db.db.endTransaction();
+        }
+        check();
+        height = rollbackHeight;
+        inTransaction(con -> change(10));
+        check();
+    }
+
+    @Test
+    public void unchangedKeysStayCached() {
+        check();
+        inTransaction(con -> {
+            Row row = table.get(rowDbKeyFactory.newKey(4));
+            row.v++;
+            row.height = ++height;
+            table.insert(row);
+        });
+        long hits = cache().getHits();
+        long misses = cache().getMisses();
+        get(2);
+        Assert.assertEquals(hits + 1, cache().getHits());
+        get(4);
+        Assert.assertEquals(misses + 1, cache().getMisses());
+        check();
+    }
+
+    @Test
+    public void heightAndGeneration() throws SQLException {
+        ReadCache cache = ReadCache.forTable("read_cache_test");
+        DbKey dbKey = rowDbKeyFactory.newKey(0);
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT * FROM read_cache_test WHERE id = 0 AND latest = TRUE")) {
+            try (ResultSet rs = pstmt.executeQuery()) {
+                Assert.assertTrue(rs.next());
+                cache.put(dbKey, rs, 5, cache.getGeneration());
+            }
+            Assert.assertNull(cache.get(dbKey, 4));
+            try (ResultSet rs = cache.get(dbKey, 6)) {
+                Assert.assertNotNull(rs);
+                Row row = fromDb(0);
+                Assert.assertEquals(row.v, rs.getLong("v"));
+                Assert.assertArrayEquals(row.data, rs.getBytes("data"));
+                Assert.assertFalse(rs.next());
+            }
+            // a transaction that changed the key committed while the row was read
+            long generation = cache.getGeneration();
+            inTransaction(c -> cache.changed(Db.db, dbKey));
+            Assert.assertNull(cache.get(dbKey, 6));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                Assert.assertTrue(rs.next());
+                cache.put(dbKey, rs, 5, generation);
+            }
+            Assert.assertNull(cache.get(dbKey, 6));
+        }
+    }
+
+    // changes of the current transaction at the next height: new rows, new versions and deletes
+    private void change(int changes) {
+        height++;
+        for (int i = 0; i < changes; ++i) {
+            long id = random.nextInt(KEYS);
+            Row row = table.get(rowDbKeyFactory.newKey(id));
+            if (row == null) {
+                table.insert(new Row(id, random.nextLong(), bytes(), height));
+            } else if (random.nextInt(4) == 0) {
+                table.delete(row);
+            } else {
+                row.v = random.nextLong();
+                row.data = bytes();
+                row.height = height;
+                table.insert(row);
+            }
+        }
+    }
+
+    // every key through the table against the latest rows of the database, as seen by the calling thread
+    private static void check() {
+        for (long id = 0; id < KEYS; ++id) {
+            Row expected = fromDb(id);
+            for (int i = 0; i < 2; ++i) {
+                Row row = get(id);
+                if (expected == null) {
+                    Assert.assertNull(row);
+                } else {
+                    Assert.assertNotNull(row);
+                    Assert.assertEquals(expected.v, row.v);
+                    Assert.assertArrayEquals(expected.data, row.data);
+                    Assert.assertEquals(expected.height, row.height);
+                }
+            }
+        }
+    }
+
+    private static Row get(long id) {
+        return table.get(rowDbKeyFactory.newKey(id));
+    }
+
+    private static Row fromDb(long id) {
+        try (Connection con = Db.db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT v, data, height FROM read_cache_test WHERE id = ? "
+                     + "AND latest = TRUE")) {
+            pstmt.setLong(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? new Row(id, rs.getLong(1), rs.getBytes(2), rs.getInt(3)) : null;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e.toString(), e);
+        }
+    }
+
+    private static ReadCache cache() {
+        for (ReadCache cache : ReadCache.getAll()) {
+            if (cache.getTable().equals("read_cache_test")) {
+                return cache;
+            }
+        }
+        throw new IllegalStateException("read_cache_test is not cached");
+    }
+
+    private byte[] bytes() {
+        byte[] bytes = new byte[8];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,228 @@
+package org.xel.db;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Pop-off of the last 100 and 720 blocks of a versioned table, with VersionedEntityDbTable.rollback (one UPDATE per
+ key changed above the height, after the DELETE) against a single set-based UPDATE that restores the latest flag of
+ all those keys before the DELETE. The table is filled with a history of the given number of blocks, some versions
+ are deletions (no version of the key is latest). Both rollbacks run on the same data within a transaction that is
+ rolled back afterwards and must leave identical tables behind. This is done for a table keyed by id and one keyed by
+ a pair of ids. The DELETE is timed on its own, it is the same statement in both.
+   java -cp target/classes:target/test-classes:<deps> org.xel.db.RollbackBenchmark [blocks] [changes per block] [keys]
+ */
+public class RollbackBenchmark {
+
+    private static final DbKey.LongKeyFactory<Object> idKeyFactory = new DbKey.LongKeyFactory<Object>("id") {
+        @Override
+        public DbKey newKey(Object o) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private static final DbKey.LinkKeyFactory<Object> linkKeyFactory = new DbKey.LinkKeyFactory<Object>("account_id", "asset_id") {
+        @Override
+        public DbKey newKey(Object o) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    public static void main(String[] args) throws Exception {
+        int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int changes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int keys = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+        File dir = Files.createTempDirectory("rollback").toFile();
+        TransactionalDb db = new TransactionalDb(new BasicDb.DbProperties()
+                .dbUrl("jdbc:h2:" + new File(dir, "bench").getAbsolutePath() + ";DB_CLOSE_ON_EXIT=FALSE;MVCC=TRUE")
+                .dbUsername("sa").dbPassword("sa").maxConnections(4).loginTimeout(10).defaultLockTimeout(10)
+                .maxMemoryRows(1000000));
+        db.init(new DbVersion() {
+            @Override
+            protected void update(int nextUpdate) {
+                switch (nextUpdate) {
+                    case 1:
+                        apply("CREATE TABLE account (db_id IDENTITY, id BIGINT NOT NULL, balance BIGINT NOT NULL, "
+                                + "height INT NOT NULL, latest BOOLEAN NOT NULL DEFAULT TRUE)");
+                    case 2:
+                        apply("CREATE UNIQUE INDEX account_id_height_idx ON account (id, height DESC)");
+                    case 3:
+                        apply("CREATE INDEX account_height_id_idx ON account (height, id)");
+                    case 4:
+                        apply("CREATE TABLE account_asset (db_id IDENTITY, account_id BIGINT NOT NULL, asset_id BIGINT NOT NULL, "
+                                + "quantity BIGINT NOT NULL, height INT NOT NULL, latest BOOLEAN NOT NULL DEFAULT TRUE)");
+                    case 5:
+                        apply("CREATE UNIQUE INDEX account_asset_id_height_idx ON account_asset (account_id, asset_id, height DESC)");
+                    case 6:
+                        apply("CREATE INDEX account_asset_height_id_idx ON account_asset (height, account_id, asset_id)");
+                    case 7:
+                        return;
+                    default:
+                        throw new RuntimeException("Unexpected update " + nextUpdate);
+                }
+            }
+        });
+        try {
+            fill(db, "account", "id", "balance", blocks, changes, keys, 1);
+            fill(db, "account_asset", "account_id, asset_id", "quantity", blocks, changes, keys / 10, 10);
+            for (int round = 0; round < 2; ++round) {
+                // first round is warm up
+                for (int popOff : new int[] {100, 720}) {
+                    compare(db, "account", idKeyFactory, blocks - popOff, round == 1);
+                    compare(db, "account_asset", linkKeyFactory, blocks - popOff, round == 1);
+                }
+            }
+        } finally {
+            db.shutdown();
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    // every change adds a version at its height, one in 50 is a deletion
+    private static void fill(TransactionalDb db, String table, String keyColumns, String valueColumn, int blocks,
+                             int changes, int keys, int assets) throws SQLException {
+        boolean link = assets > 1;
+        String keyClause = link ? "account_id = ? AND asset_id = ?" : "id = ?";
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmtLatest = con.prepareStatement("UPDATE " + table + " SET latest = FALSE WHERE "
+                     + keyClause + " AND latest = TRUE");
+             PreparedStatement pstmtInsert = con.prepareStatement("MERGE INTO " + table + " (" + keyColumns + ", "
+                     + valueColumn + ", height, latest) KEY (" + keyColumns + ", height) VALUES (" + (link ? "?, ?" : "?")
+                     + ", ?, ?, ?)")) {
+            for (int height = 1; height <= blocks; ++height) {
+                for (int i = 0; i < changes; ++i) {
+                    long id = random.nextInt(keys);
+                    long asset = random.nextInt(assets);
+                    int j = 0;
+                    pstmtLatest.setLong(++j, id);
+                    if (link) {
+                        pstmtLatest.setLong(++j, asset);
+                    }
+                    pstmtLatest.executeUpdate();
+                    j = 0;
+                    pstmtInsert.setLong(++j, id);
+                    if (link) {
+                        pstmtInsert.setLong(++j, asset);
+                    }
+                    pstmtInsert.setLong(++j, random.nextInt(1000000));
+                    pstmtInsert.setInt(++j, height);
+                    pstmtInsert.setBoolean(++j, random.nextInt(50) != 0);
+                    pstmtInsert.executeUpdate();
+                }
+                if (height % 100 == 0) {
+                    db.commitTransaction();
+                }
+            }
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+        }
+        System.out.println(String.format("%-13s filled with %d blocks of %d changes in %.1f s", table, blocks, changes,
+                (System.nanoTime() - start) / 1e9));
+    }
+
+    private static void compare(TransactionalDb db, String table, DbKey.Factory<Object> dbKeyFactory, int height,
+                                boolean report) throws SQLException {
+        long perKeyTime, setBasedTime, deleteTime;
+        long perKey, setBased;
+        db.beginTransaction();
+        try {
+            long start = System.nanoTime();
+            VersionedEntityDbTable.rollback(db, table, height, dbKeyFactory);
+            perKeyTime = System.nanoTime() - start;
+            perKey = checksum(db, table);
+            db.rollbackTransaction();
+
+            start = System.nanoTime();
+            delete(db, table, height);
+            deleteTime = System.nanoTime() - start;
+            db.rollbackTransaction();
+
+            start = System.nanoTime();
+            rollbackSetBased(db, table, height, dbKeyFactory);
+            setBasedTime = System.nanoTime() - start;
+            setBased = checksum(db, table);
+            db.rollbackTransaction();
+        } finally {
+            db.endTransaction();
+        }
+        if (perKey != setBased) {
+            throw new IllegalStateException("Tables differ after rollback of " + table + " to " + height + ": "
+                    + perKey + " != " + setBased);
+        }
+        if (report) {
+            System.out.println(String.format("%-13s rollback to %5d  per key %8.1f ms  set based %8.1f ms  delete alone %8.1f ms",
+                    table, height, perKeyTime / 1e6, setBasedTime / 1e6, deleteTime / 1e6));
+        }
+    }
+
+    // the last version at or below the height becomes latest again for every key that has a newer one, H2 1.4.196 has
+    // no (key, height) IN (SELECT ...) so the last versions are joined back to their db_id
+    private static void rollbackSetBased(TransactionalDb db, String table, int height, DbKey.Factory<Object> dbKeyFactory)
+            throws SQLException {
+        String pkColumns = dbKeyFactory.getPKColumns();
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmtSetLatest = con.prepareStatement("UPDATE " + table + " SET latest = TRUE WHERE db_id IN"
+                     + " (SELECT b.db_id FROM (SELECT " + pkColumns + ", MAX(height) AS height FROM " + table
+                     + " WHERE height <= ? AND (" + pkColumns + ") IN (SELECT (" + pkColumns + ") FROM " + table
+                     + " WHERE height > ?) GROUP BY " + pkColumns + ") AS a, " + table + " AS b WHERE "
+                     + dbKeyFactory.getSelfJoinClause() + " AND b.height = a.height)")) {
+            pstmtSetLatest.setInt(1, height);
+            pstmtSetLatest.setInt(2, height);
+            pstmtSetLatest.executeUpdate();
+        }
+        delete(db, table, height);
+    }
+
+    private static void delete(TransactionalDb db, String table, int height) throws SQLException {
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmtDelete = con.prepareStatement("DELETE FROM " + table + " WHERE height > ?")) {
+            pstmtDelete.setInt(1, height);
+            pstmtDelete.executeUpdate();
+        }
+    }
+
+    private static long checksum(TransactionalDb db, String table) throws SQLException {
+        long checksum = 0;
+        try (Connection con = db.getConnection();
+             Statement stmt = con.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM " + table + " ORDER BY db_id")) {
+            int columns = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                for (int i = 1; i <= columns; ++i) {
+                    checksum = checksum * 31 + rs.getObject(i).hashCode();
+                }
+            }
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,263 @@
+package org.xel.db;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xel.AbstractDbTest;
+import org.xel.Db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ The statement cache of transaction connections, with room for 4 statements in the test properties.
+ */
+public class StatementCacheTest extends AbstractDbTest {
+
+    private static final String SELECT = "SELECT v FROM statement_cache_test WHERE id >= ? AND id < ? ORDER BY id";
+    private static final String INSERT = "INSERT INTO statement_cache_test (id, v) VALUES (?, ?)";
+
+    @BeforeClass
+    public static void createTable() {
+        Assert.assertEquals(4, StatementCache.getCapacity());
+        inTransaction(con -> {
+            execute(con, "DROP TABLE IF EXISTS statement_cache_test");
+            execute(con, "CREATE TABLE statement_cache_test (id INT NOT NULL PRIMARY KEY, v BIGINT NOT NULL)");
+        });
+    }
+
+    @Test
+    public void reusedWithinTransaction() {
+        inRolledBackTransaction(con -> {
+            PreparedStatement first = con.prepareStatement(SELECT);
+            first.close();
+            long hits = StatementCache.getHits();
+            PreparedStatement second = con.prepareStatement(SELECT);
+            Assert.assertSame(first, second);
+            Assert.assertEquals(hits + 1, StatementCache.getHits());
+            Assert.assertFalse(second.isClosed());
+            second.close();
+            Assert.assertTrue(second.isClosed());
+        });
+    }
+
+    @Test
+    public void notAcrossTransactions() {
+        List<PreparedStatement> prepared = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            inRolledBackTransaction(con -> {
+                try (PreparedStatement pstmt = con.prepareStatement(SELECT)) {
+                    prepared.add(pstmt);
+                }
+            });
+        }
+        Assert.assertNotSame(prepared.get(0), prepared.get(1));
+    }
+
+    @Test
+    public void notOutsideTransactions() throws SQLException {
+        long hits = StatementCache.getHits();
+        long misses = StatementCache.getMisses();
+        for (int i = 0; i < 3; ++i) {
+            try (Connection con = Db.db.getConnection();
+                 PreparedStatement pstmt = con.prepareStatement(SELECT)) {
+                query(pstmt, 0, 10);
+            }
+        }
+        Assert.assertEquals(hits, StatementCache.getHits());
+        Assert.assertEquals(misses, StatementCache.getMisses());
+    }
+
+    @Test
+    public void secondOpenPrepare() {
+        inRolledBackTransaction(con -> {
+            insert(con, 1, 10);
+            insert(con, 2, 20);
+            PreparedStatement first = con.prepareStatement(SELECT);
+            first.setInt(1, 0);
+            first.setInt(2, 2);
+            try (ResultSet rs = first.executeQuery()) {
+                long misses = StatementCache.getMisses();
+                // a nested query of the same SQL while the first one is still being read
+                try (PreparedStatement second = con.prepareStatement(SELECT)) {
+                    Assert.assertNotSame(first, second);
+                    Assert.assertEquals(misses + 1, StatementCache.getMisses());
+                    Assert.assertEquals(list(20), query(second, 2, 3));
+                }
+                Assert.assertTrue(rs.next());
+                Assert.assertEquals(10, rs.getLong(1));
+                Assert.assertFalse(rs.next());
+            }
+            first.close();
+            try (PreparedStatement third = con.prepareStatement(SELECT)) {
+                Assert.assertSame(first, third);
+            }
+        });
+    }
+
+    @Test
+    public void eviction() {
+        inRolledBackTransaction(con -> {
+            long evictions = StatementCache.getEvictions();
+            PreparedStatement first = con.prepareStatement(select(0));
+            first.close();
+            for (int i = 1; i <= 4; ++i) {
+                con.prepareStatement(select(i)).close();
+            }
+            Assert.assertEquals(evictions + 1, StatementCache.getEvictions());
+            long hits = StatementCache.getHits();
+            try (PreparedStatement pstmt = con.prepareStatement(select(4))) {
+                Assert.assertEquals(hits + 1, StatementCache.getHits());
+            }
+            long misses = StatementCache.getMisses();
+            try (PreparedStatement pstmt = con.prepareStatement(select(0))) {
+                Assert.assertNotSame(first, pstmt);
+                Assert.assertEquals(misses + 1, StatementCache.getMisses());
+                Assert.assertEquals(list(), query(pstmt, 0, 10));
+            }
+        });
+    }
+
+    @Test
+    public void evictedWhileInUse() {
+        inRolledBackTransaction(con -> {
+            insert(con, 1, 10);
+            PreparedStatement open = con.prepareStatement(SELECT);
+            for (int i = 0; i < 4; ++i) {
+                con.prepareStatement(select(i)).close();
+            }
+            // dropped out of the cache but still usable by whoever has it
+            Assert.assertFalse(open.isClosed());
+            Assert.assertEquals(list(10), query(open, 0, 10));
+            open.close();
+            try (PreparedStatement pstmt = con.prepareStatement(SELECT)) {
+                Assert.assertNotSame(open, pstmt);
+            }
+        });
+    }
+
+    @Test
+    public void changedStatementsAreKeptOut() {
+        inRolledBackTransaction(con -> {
+            insert(con, 1, 10);
+            insert(con, 2, 20);
+            PreparedStatement limited = con.prepareStatement(SELECT);
+            limited.setMaxRows(1);
+            Assert.assertEquals(list(10), query(limited, 0, 10));
+            limited.close();
+            try (PreparedStatement pstmt = con.prepareStatement(SELECT)) {
+                Assert.assertNotSame(limited, pstmt);
+                Assert.assertEquals(list(10, 20), query(pstmt, 0, 10));
+            }
+        });
+    }
+
+    @Test
+    public void parametersAreCleared() {
+        inRolledBackTransaction(con -> {
+            PreparedStatement pstmt = con.prepareStatement(SELECT);
+            pstmt.setInt(1, 0);
+            pstmt.setInt(2, 10);
+            ResultSet rs = pstmt.executeQuery();
+            pstmt.close();
+            Assert.assertTrue(rs.isClosed());
+            try (PreparedStatement again = con.prepareStatement(SELECT)) {
+                Assert.assertSame(pstmt, again);
+                again.executeQuery();
+                Assert.fail();
+            } catch (SQLException expected) {
+                // parameter not set
+            }
+        });
+    }
+
+    // the same queries and updates through cached statements and through plain statements of a connection of its own
+    @Test
+    public void resultsAgainstPlainStatements() throws SQLException {
+        Random random = new Random(13);
+        TreeMap<Integer, Long> committed = new TreeMap<>();
+        for (int round = 0; round < 10; ++round) {
+            TreeMap<Integer, Long> rows = new TreeMap<>(committed);
+            boolean commit = random.nextBoolean();
+            Sql sql = con -> {
+                for (int i = 0; i < 50; ++i) {
+                    int id = random.nextInt(1000);
+                    if (!rows.containsKey(id)) {
+                        long v = random.nextLong();
+                        insert(con, id, v);
+                        rows.put(id, v);
+                    }
+                    int from = random.nextInt(1000);
+                    int to = from + random.nextInt(100);
+                    try (PreparedStatement pstmt = con.prepareStatement(SELECT)) {
+                        Assert.assertEquals(new ArrayList<>(rows.subMap(from, to).values()), query(pstmt, from, to));
+                    }
+                }
+            };
+            if (commit) {
+                inTransaction(sql);
+                committed = rows;
+            } else {
+                inRolledBackTransaction(sql);
+            }
+            try (Connection con = Db.db.getConnection();
+                 PreparedStatement pstmt = con.prepareStatement(SELECT)) {
+                Assert.assertEquals(new ArrayList<>(committed.values()), query(pstmt, 0, 1000));
+            }
+        }
+    }
+
+    private static String select(int i) {
+        return SELECT + " LIMIT " + (i + 1);
+    }
+
+    private static void insert(Connection con, int id, long v) throws SQLException {
+        try (PreparedStatement pstmt = con.prepareStatement(INSERT)) {
+            pstmt.setInt(1, id);
+            pstmt.setLong(2, v);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static List<Long> query(PreparedStatement pstmt, int from, int to) throws SQLException {
+        pstmt.setInt(1, from);
+        pstmt.setInt(2, to);
+        List<Long> values = new ArrayList<>();
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                values.add(rs.getLong(1));
+            }
+        }
+        return values;
+    }
+
+    private static List<Long> list(long... values) {
+        List<Long> list = new ArrayList<>();
+        for (long v : values) {
+            list.add(v);
+        }
+        return list;
+    }
+}
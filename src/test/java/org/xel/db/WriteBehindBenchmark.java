@@ -0,0 +1,178 @@
+package org.xel.db;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Blocks per second of a rescan-like workload on a versioned account table, with every save executed right away
+ against saves held back by WriteBehind. Each block is one database transaction; every payment reads sender and
+ recipient the first time the block touches them (a read flushes what is pending, as in the real block apply) and
+ saves both, the forger is credited the fee of every payment. Both runs must leave identical tables behind.
+   java -cp target/classes:target/test-classes:<deps> org.xel.db.WriteBehindBenchmark [blocks] [payments per block] [accounts]
+ */
+public class WriteBehindBenchmark {
+
+    private static final String LATEST_SQL = "UPDATE account SET latest = FALSE WHERE id = ? AND latest = TRUE LIMIT 1";
+
+    private static final DbKey.LongKeyFactory<Account> keyFactory = new DbKey.LongKeyFactory<Account>("id") {
+        @Override
+        public DbKey newKey(Account account) {
+            return newKey(account.id);
+        }
+    };
+
+    private static final class Account {
+        private final long id;
+        private long balance;
+
+        private Account(long id, long balance) {
+            this.id = id;
+            this.balance = balance;
+        }
+
+        private void save(Connection con, int height) throws SQLException {
+            try (PreparedStatement pstmt = con.prepareStatement("MERGE INTO account (id, balance, height, latest) "
+                    + "KEY (id, height) VALUES (?, ?, ?, TRUE)")) {
+                int i = 0;
+                pstmt.setLong(++i, id);
+                pstmt.setLong(++i, balance);
+                pstmt.setInt(++i, height);
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int payments = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int accounts = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+
+        for (int round = 0; round < 2; ++round) {
+            // first round is warm up
+            long direct = run(0, blocks, payments, accounts, round == 1, "direct");
+            long behind = run(1000, blocks, payments, accounts, round == 1, "write-behind");
+            if (direct != behind) {
+                throw new IllegalStateException("Tables differ: " + direct + " != " + behind);
+            }
+        }
+    }
+
+    // returns a checksum of the table
+    private static long run(int writeBehindSize, int blocks, int payments, int accounts, boolean report, String name)
+            throws Exception {
+        File dir = Files.createTempDirectory("writebehind").toFile();
+        TransactionalDb db = new TransactionalDb(new BasicDb.DbProperties()
+                .dbUrl("jdbc:h2:" + new File(dir, "bench").getAbsolutePath() + ";DB_CLOSE_ON_EXIT=FALSE;MVCC=TRUE")
+                .dbUsername("sa").dbPassword("sa").maxConnections(4).loginTimeout(10).defaultLockTimeout(10)
+                .maxMemoryRows(100000));
+        db.init(new DbVersion() {
+            @Override
+            protected void update(int nextUpdate) {
+                switch (nextUpdate) {
+                    case 1:
+                        apply("CREATE TABLE account (db_id IDENTITY, id BIGINT NOT NULL, balance BIGINT NOT NULL, "
+                                + "height INT NOT NULL, latest BOOLEAN NOT NULL DEFAULT TRUE)");
+                    case 2:
+                        apply("CREATE UNIQUE INDEX account_id_height_idx ON account (id, height DESC)");
+                    case 3:
+                        apply("CREATE INDEX account_id_latest_idx ON account (id, latest)");
+                    case 4:
+                        return;
+                    default:
+                        throw new RuntimeException("Unexpected update " + nextUpdate);
+                }
+            }
+        });
+        db.setWriteBehindSize(writeBehindSize);
+
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int height = 1; height <= blocks; ++height) {
+            db.beginTransaction();
+            try {
+                Map<Long, Account> cache = new HashMap<>();
+                Account forger = get(db, cache, random.nextInt(10));
+                for (int i = 0; i < payments; ++i) {
+                    Account sender = get(db, cache, random.nextInt(accounts));
+                    Account recipient = get(db, cache, random.nextInt(accounts));
+                    long amount = random.nextInt(1000);
+                    sender.balance -= amount + 1;
+                    save(db, sender, height);
+                    recipient.balance += amount;
+                    save(db, recipient, height);
+                    forger.balance += 1;
+                    save(db, forger, height);
+                }
+                db.commitTransaction();
+            } finally {
+                db.endTransaction();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (report) {
+            System.out.println(String.format("%-13s %6d blocks %4d payments %8.1f blocks/s", name, blocks, payments,
+                    blocks / (elapsed / 1e9)));
+        }
+
+        long checksum = 0;
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT id, balance, height, latest FROM account ORDER BY id, height");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                checksum = checksum * 31 + rs.getLong(1);
+                checksum = checksum * 31 + rs.getLong(2);
+                checksum = checksum * 31 + rs.getInt(3);
+                checksum = checksum * 31 + (rs.getBoolean(4) ? 1 : 0);
+            }
+        }
+        db.shutdown();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+        return checksum;
+    }
+
+    private static Account get(TransactionalDb db, Map<Long, Account> cache, long id) throws SQLException {
+        Account account = cache.get(id);
+        if (account != null) {
+            return account;
+        }
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT balance FROM account WHERE id = ? AND latest = TRUE")) {
+            pstmt.setLong(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                account = new Account(id, rs.next() ? rs.getLong(1) : 0);
+            }
+        }
+        cache.put(id, account);
+        return account;
+    }
+
+    private static void save(TransactionalDb db, Account account, int height) throws SQLException {
+        db.saveVersioned("account", keyFactory.newKey(account), height, LATEST_SQL, con -> account.save(con, height));
+    }
+}
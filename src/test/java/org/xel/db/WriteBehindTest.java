@@ -0,0 +1,229 @@
+package org.xel.db;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/******************************************************************************
+ * Copyright © 2017 The XEL Core Developers.                                  *
+ *                                                                            *
+ * See the AUTHORS.txt, DEVELOPER-AGREEMENT.txt and LICENSE.txt files at      *
+ * the top-level directory of this distribution for the individual copyright  *
+ * holder information and the developer policies on copyright and licensing.  *
+ *                                                                            *
+ * Unless otherwise agreed in a custom licensing agreement, no part of the    *
+ * XEL software, including this file, may be copied, modified, propagated,    *
+ * or distributed except according to the terms contained in the LICENSE.txt  *
+ * file.                                                                      *
+ *                                                                            *
+ * Removal or modification of this copyright notice is prohibited.            *
+ *                                                                            *
+ ******************************************************************************/
+
+/*
+ Saves held back by WriteBehind, on a versioned table of its own database: when they are executed, what the
+ transaction sees of them and how a failing one is reported.
+ */
+public class WriteBehindTest {
+
+    private static final String LATEST_SQL = "UPDATE account SET latest = FALSE WHERE id = ? AND latest = TRUE LIMIT 1";
+
+    private static final DbKey.LongKeyFactory<Long> keyFactory = new DbKey.LongKeyFactory<Long>("id") {
+        @Override
+        public DbKey newKey(Long id) {
+            return newKey(id.longValue());
+        }
+    };
+
+    private File dir;
+    private TransactionalDb db;
+
+    @Before
+    public void init() throws Exception {
+        dir = Files.createTempDirectory("writebehind").toFile();
+        db = new TransactionalDb(new BasicDb.DbProperties()
+                .dbUrl("jdbc:h2:" + new File(dir, "test").getAbsolutePath() + ";DB_CLOSE_ON_EXIT=FALSE;MVCC=TRUE")
+                .dbUsername("sa").dbPassword("sa").maxConnections(4).loginTimeout(10).defaultLockTimeout(10)
+                .maxMemoryRows(100000));
+        db.init(new DbVersion() {
+            @Override
+            protected void update(int nextUpdate) {
+                switch (nextUpdate) {
+                    case 1:
+                        apply("CREATE TABLE account (db_id IDENTITY, id BIGINT NOT NULL, balance BIGINT NOT NULL "
+                                + "CHECK (balance >= 0), height INT NOT NULL, latest BOOLEAN NOT NULL DEFAULT TRUE)");
+                    case 2:
+                        apply("CREATE UNIQUE INDEX account_id_height_idx ON account (id, height DESC)");
+                    case 3:
+                        apply("CREATE TABLE block_log (height INT NOT NULL)");
+                    case 4:
+                        return;
+                    default:
+                        throw new RuntimeException("Unexpected update " + nextUpdate);
+                }
+            }
+        });
+        db.setWriteBehindSize(1000);
+    }
+
+    @After
+    public void shutdown() {
+        db.shutdown();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void statementOnTableSeesSaves() throws Exception {
+        db.beginTransaction();
+        try {
+            save(1, 100, 1);
+            save(2, 50, 1);
+            save(1, 70, 1);
+            Assert.assertEquals(70, balance(1));
+            Assert.assertEquals(50, balance(2));
+            save(1, 60, 2);
+            Assert.assertEquals(60, balance(1));
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+        }
+        Assert.assertEquals("1:70:1:false 1:60:2:true 2:50:1:true", rows());
+    }
+
+    @Test
+    public void failingSaveIsReportedAtCommit() throws Exception {
+        db.beginTransaction();
+        try {
+            save(1, 100, 1);
+            save(7, -5, 1);
+            save(2, 50, 1);
+            logBlock(1);
+            try {
+                db.commitTransaction();
+                Assert.fail("Commit of an invalid balance succeeded");
+            } catch (RuntimeException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("Save of account 7 at height 1 failed"));
+                db.rollbackTransaction();
+            }
+        } finally {
+            db.endTransaction();
+        }
+        Assert.assertEquals("", rows());
+    }
+
+    @Test
+    public void failingSaveIsReportedAtStatementOnTable() throws Exception {
+        db.beginTransaction();
+        try {
+            save(1, 100, 1);
+            save(7, -5, 1);
+            try {
+                balance(1);
+                Assert.fail("Query after an invalid balance succeeded");
+            } catch (SQLException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains("Save of account 7 at height 1 failed"));
+            }
+            db.rollbackTransaction();
+        } finally {
+            db.endTransaction();
+        }
+        Assert.assertEquals("", rows());
+    }
+
+    @Test
+    public void rollbackDropsSaves() throws Exception {
+        db.beginTransaction();
+        try {
+            save(1, 100, 1);
+            db.rollbackTransaction();
+            save(2, 50, 1);
+            db.commitTransaction();
+        } finally {
+            db.endTransaction();
+        }
+        Assert.assertEquals("2:50:1:true", rows());
+    }
+
+    @Test
+    public void otherSavesRunRightAway() throws Exception {
+        db.beginTransaction();
+        try {
+            save(1, 100, 1);
+            db.saveVersioned("account", keyFactory.newKey(7L), 1, LATEST_SQL, con -> {
+                try (PreparedStatement pstmt = con.prepareStatement("INSERT INTO account (id, balance, height, latest) "
+                        + "VALUES (?, ?, ?, TRUE)")) {
+                    pstmt.setLong(1, 7);
+                    pstmt.setLong(2, -5);
+                    pstmt.setInt(3, 1);
+                    pstmt.executeUpdate();
+                }
+            });
+            Assert.fail("Insert of an invalid balance succeeded");
+        } catch (SQLException e) {
+            Assert.assertFalse(e.getMessage(), e.getMessage().contains("Save of"));
+            db.rollbackTransaction();
+        } finally {
+            db.endTransaction();
+        }
+        Assert.assertEquals("", rows());
+    }
+
+    private void save(long id, long balance, int height) throws SQLException {
+        db.saveVersioned("account", keyFactory.newKey(id), height, LATEST_SQL, con -> {
+            try (PreparedStatement pstmt = con.prepareStatement("MERGE INTO account (id, balance, height, latest) "
+                    + "KEY (id, height) VALUES (?, ?, ?, TRUE)")) {
+                int i = 0;
+                pstmt.setLong(++i, id);
+                pstmt.setLong(++i, balance);
+                pstmt.setInt(++i, height);
+                pstmt.executeUpdate();
+            }
+        });
+    }
+
+    private void logBlock(int height) throws SQLException {
+        Connection con = db.getConnection();
+        try (PreparedStatement pstmt = con.prepareStatement("INSERT INTO block_log (height) VALUES (?)")) {
+            pstmt.setInt(1, height);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private long balance(long id) throws SQLException {
+        Connection con = db.getConnection();
+        try (PreparedStatement pstmt = con.prepareStatement("SELECT balance FROM account WHERE id = ? AND latest = TRUE")) {
+            pstmt.setLong(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                Assert.assertTrue(rs.next());
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private String rows() throws SQLException {
+        StringBuilder sb = new StringBuilder();
+        try (Connection con = db.getConnection();
+             PreparedStatement pstmt = con.prepareStatement("SELECT id, balance, height, latest FROM account ORDER BY id, height");
+             ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                if (sb.length() > 0) {
+                    sb.append(' ');
+                }
+                sb.append(rs.getLong(1)).append(':').append(rs.getLong(2)).append(':').append(rs.getInt(3)).append(':')
+                        .append(rs.getBoolean(4));
+            }
+        }
+        return sb.toString();
+    }
+}